@@ -0,0 +1,75 @@
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// Request handling on a server filled with stations * readingsPerStation readings.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AggregationServerBenchmark {
+  @Param({"10", "1000"})
+  public int stations;
+
+  @Param({"1", "50"})
+  public int readingsPerStation;
+
+  private AggregationServer server;
+  private String[] putRequests;
+  private String[] getRequests;
+  private StationHistory history;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    server = new AggregationServer(true, new ServerConfig()
+        .setDataDirectory(Files.createTempDirectory("bench").toString()));
+    // PUTs are only acknowledged once they are in the log, as with a started server.
+    server.openWriteAheadLog();
+    putRequests = new String[stations];
+    getRequests = new String[stations];
+    for (int station = 0; station < stations; station++) {
+      String stationID = "IDS" + (60000 + station);
+      for (int reading = 1; reading <= readingsPerStation; reading++) {
+        server.addWeatherData(BenchmarkData.reading(stationID, reading), reading, "server" + (station % 20));
+      }
+      String body = BenchmarkData.reading(stationID, readingsPerStation + 1).toString();
+      putRequests[station] = "PUT /weather.json HTTP/1.1\r\nServerID: server" + (station % 20)
+          + "\r\nLamportClock: 1\r\nContent-Length: " + body.length() + "\r\n\r\n" + body;
+      getRequests[station] = "GET /weather.json HTTP/1.1\r\nStationID: " + stationID + "\r\nLamportClock: 1\r\n\r\n";
+    }
+    history = new StationHistory(RetentionPolicy.UNBOUNDED);
+    for (int reading = 1; reading <= readingsPerStation; reading++) {
+      history.add(new WeatherData(BenchmarkData.reading("IDS60000", reading), reading * 2, "server0"));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    server.terminate();
+  }
+
+  @Benchmark
+  public String put() {
+    return server.processRequest(putRequests[ThreadLocalRandom.current().nextInt(stations)]);
+  }
+
+  @Benchmark
+  public String get() {
+    return server.processRequest(getRequests[ThreadLocalRandom.current().nextInt(stations)]);
+  }
+
+  @Benchmark
+  public String getAll() {
+    return server.processRequest("GET /weather.json?all HTTP/1.1\r\nLamportClock: 1\r\n\r\n");
+  }
+
+  // The history lookup behind locateWeatherData, for a GET at an earlier Lamport time.
+  @Benchmark
+  public WeatherData locateWeatherData() {
+    return history.latestAtOrBefore(ThreadLocalRandom.current().nextInt(readingsPerStation * 2 + 1));
+  }
+}
@@ -0,0 +1,29 @@
+import com.google.gson.JsonObject;
+
+// Readings shaped like the sample feed in src/input.txt.
+final class BenchmarkData {
+  private BenchmarkData() {
+  }
+
+  static JsonObject reading(String stationID, int sequence) {
+    JsonObject data = new JsonObject();
+    data.addProperty("id", stationID);
+    data.addProperty("name", "Adelaide (West Terrace /  ngayirdapira)");
+    data.addProperty("state", "SA");
+    data.addProperty("time_zone", "CST");
+    data.addProperty("lat", "-34.9");
+    data.addProperty("lon", "138.6");
+    data.addProperty("local_date_time", "15/04:00pm");
+    data.addProperty("local_date_time_full", Long.toString(20230715160000L + sequence));
+    data.addProperty("air_temp", Double.toString(10 + sequence % 100 / 10.0));
+    data.addProperty("apparent_t", "9.5");
+    data.addProperty("cloud", "Partly cloudy");
+    data.addProperty("dewpt", "5.7");
+    data.addProperty("press", "1023.9");
+    data.addProperty("rel_hum", Integer.toString(sequence % 100));
+    data.addProperty("wind_dir", "S");
+    data.addProperty("wind_spd_kmh", "15");
+    data.addProperty("wind_spd_kt", "8");
+    return data;
+  }
+}
@@ -0,0 +1,80 @@
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// The once-a-second expiry pass, with nothing due and with every server due.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExpiryBenchmark {
+
+  @State(Scope.Thread)
+  public abstract static class Servers {
+    @Param({"10", "1000"})
+    public int servers;
+
+    @Param({"5"})
+    public int stationsPerServer;
+
+    AggregationServer server;
+    long now;
+
+    void fill() throws Exception {
+      server = new AggregationServer(true, new ServerConfig()
+          .setDataDirectory(Files.createTempDirectory("bench").toString()));
+      server.openWriteAheadLog();
+      for (int serverIndex = 0; serverIndex < servers; serverIndex++) {
+        for (int station = 0; station < stationsPerServer; station++) {
+          String stationID = "IDS" + (serverIndex * stationsPerServer + station);
+          String body = BenchmarkData.reading(stationID, 1).toString();
+          server.processRequest("PUT /weather.json HTTP/1.1\r\nServerID: server" + serverIndex
+              + "\r\nLamportClock: 1\r\nContent-Length: " + body.length() + "\r\n\r\n" + body);
+        }
+      }
+      now = System.currentTimeMillis();
+    }
+  }
+
+  // Nothing expires, so one server serves every invocation.
+  public static class Idle extends Servers {
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+      fill();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+      server.terminate();
+    }
+  }
+
+  // The first pass expires everything, so each iteration gets a fresh server and
+  // times that single pass.
+  public static class Due extends Servers {
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+      fill();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+      server.terminate();
+    }
+  }
+
+  @Benchmark
+  public void nothingDue(Idle state) {
+    state.server.expireStaleServers(state.now + 1000);
+  }
+
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @Warmup(iterations = 5)
+  @Measurement(iterations = 20)
+  public void everyServerDue(Due state) {
+    state.server.expireStaleServers(state.now + 21000);
+  }
+}
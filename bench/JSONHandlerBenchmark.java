@@ -0,0 +1,31 @@
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JSONHandlerBenchmark {
+  private String text;
+  private JsonObject json;
+
+  @Setup
+  public void setUp() {
+    json = BenchmarkData.reading("IDS60901", 1);
+    text = JSONHandler.parseJSONtoText(json).trim();
+  }
+
+  @Benchmark
+  public JsonObject parseTextToJSON() {
+    return JSONHandler.parseTextToJSON(text);
+  }
+
+  @Benchmark
+  public String parseJSONtoText() {
+    return JSONHandler.parseJSONtoText(json);
+  }
+}
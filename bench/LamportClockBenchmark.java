@@ -0,0 +1,59 @@
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// One clock shared by every benchmark thread, as the server's clock is shared by its
+// workers. SynchronizedClock is the previous implementation, kept as the baseline.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class LamportClockBenchmark {
+  private final LamportClock clock = new LamportClock();
+  private final SynchronizedClock synchronizedClock = new SynchronizedClock();
+
+  static final class SynchronizedClock {
+    private volatile int time;
+
+    synchronized int send() {
+      time++;
+      return time;
+    }
+
+    synchronized int receive(int receivedTimestamp) {
+      time = Math.max(time, receivedTimestamp) + 1;
+      return time;
+    }
+  }
+
+  // What the server does per request: receive the client's time, then stamp the response.
+  @Benchmark
+  public long receiveThenSend() {
+    clock.receive(clock.getTime() - 1);
+    return clock.send();
+  }
+
+  @Benchmark
+  public int receiveThenSendSynchronized() {
+    synchronizedClock.receive(synchronizedClock.time - 1);
+    return synchronizedClock.send();
+  }
+
+  // Sixteen timestamps taken one by one, and reserved in one update.
+  @Benchmark
+  public long sendSixteen() {
+    long last = 0;
+    for (int i = 0; i < 16; i++) {
+      last = clock.send();
+    }
+    return last;
+  }
+
+  @Benchmark
+  public long reserveSixteen() {
+    return clock.reserve(16);
+  }
+}
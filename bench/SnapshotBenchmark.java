@@ -0,0 +1,54 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+// Saving and loading a snapshot of stations * readingsPerStation readings.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnapshotBenchmark {
+  @Param({"100", "1000"})
+  public int stations;
+
+  @Param({"50"})
+  public int readingsPerStation;
+
+  @Param({"JSON", "BINARY"})
+  public ServerConfig.SnapshotFormat format;
+
+  private ServerConfig config;
+  private AggregationServer server;
+
+  @Setup(Level.Trial)
+  public void setUp() throws Exception {
+    Path dataDir = Files.createTempDirectory("bench");
+    config = new ServerConfig()
+        .setDataDirectory(dataDir.toString())
+        .setSnapshotFormat(format)
+        .setHistoryDepth(0);
+    server = new AggregationServer(true, config);
+    for (int station = 0; station < stations; station++) {
+      for (int reading = 1; reading <= readingsPerStation; reading++) {
+        server.addWeatherData(BenchmarkData.reading("IDS" + station, reading), reading, "server" + (station % 20));
+      }
+    }
+    server.saveDataToFile();
+  }
+
+  @Benchmark
+  public void save() {
+    server.saveDataToFile();
+  }
+
+  @Benchmark
+  public AggregationServer load() {
+    AggregationServer restored = new AggregationServer(true, config);
+    restored.loadDataFromFile();
+    return restored;
+  }
+}
@@ -1,47 +1,119 @@
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.PrintWriter;
-import java.lang.reflect.Type;
+import java.io.OutputStreamWriter;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
 import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import com.google.gson.*;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 public class AggregationServer {
   private NetworkHandler networkHandler;
+  // Exactly one of these is set, and is the same object as networkHandler.
+  private final BlockingServerHandler blockingHandler;
+  private final EventLoopServerHandler eventLoopHandler;
   private static final Gson gson = new Gson();
-  private LinkedBlockingQueue<Socket> requestQueue = new LinkedBlockingQueue<>();
-  private Map<String, PriorityQueue<WeatherData>> weatherDataMap = new ConcurrentHashMap<>();
+  // Accepted connections waiting for a worker, bounded by --queue-capacity.
+  private final LinkedBlockingQueue<AcceptedConnection> requestQueue;
+  // Null when --rate-limit is 0.
+  private final RateLimiter rateLimiter;
+  private Map<String, StationHistory> weatherDataMap = new ConcurrentHashMap<>();
   private Map<String, Long> timeMap = new ConcurrentHashMap<>();
+  // Stations each content server has readings in, so expiring a server only visits those.
+  private final Map<String, Set<String>> stationsByServer = new ConcurrentHashMap<>();
+  // Every server in timeMap has one pending deadline, checked against its last-seen time when it fires.
+  private final ExpiryWheel<String> expiryWheel = new ExpiryWheel<>(1000, 64);
+  private final Set<String> scheduledServers = ConcurrentHashMap.newKeySet();
+  // Encoded body of each station's latest reading. Entries are dropped and filled
+  // under the station's weatherDataMap entry lock, so a fill never outlives a change.
+  private final Map<String, CachedBody> responseCache = new ConcurrentHashMap<>();
+  // Wakes subscription GETs waiting on a station when a reading for it is stored.
+  private final UpdateSignals<String> updateSignals = new UpdateSignals<>();
+  // Each waiting subscription holds a worker, bounded by --max-subscriptions.
+  private final Semaphore subscriptionSlots;
+  private final ServerMetrics metrics = new ServerMetrics();
   private volatile boolean shutdownFlag = false;
   private LamportClock lamportClock = new LamportClock();
   private Thread acceptThread;
   private ScheduledExecutorService fileSaveScheduler;
   private ScheduledExecutorService cleanupScheduler;
+  private ExecutorService workerPool;
+  private volatile WriteAheadLog writeAheadLog;
+  private volatile LivenessStore livenessStore;
+  // PUTs hold the read lock from their log append until the reading is stored, and a
+  // snapshot rolls the log under the write lock, so every record of a rolled segment
+  // is already in the snapshot taken after the roll.
+  private final ReentrantReadWriteLock checkpointLock = new ReentrantReadWriteLock();
+  private final ServerConfig config;
   private static final int DEFAUL_PORT = 4567;
+  // A content server not heard from for this long is expired with its readings.
+  static final long STALE_AFTER_MILLIS = 20000;
+  // How often an idle kept-alive connection checks for connections waiting on a worker.
+  private static final int IDLE_CHECK_MILLIS = 100;
 
   public AggregationServer(boolean isForTested) {
-    this.networkHandler = new SocketNetworkHandler(isForTested);
+    this(isForTested, new ServerConfig());
+  }
+
+  public AggregationServer(boolean isForTested, ServerConfig config) {
+    if (config.getTransport() == ServerConfig.Transport.NIO) {
+      this.eventLoopHandler = new NioNetworkHandler(isForTested, config.getKeepAliveTimeoutMillis());
+      this.blockingHandler = null;
+      this.networkHandler = eventLoopHandler;
+    } else {
+      this.blockingHandler = new SocketNetworkHandler(isForTested);
+      this.eventLoopHandler = null;
+      this.networkHandler = blockingHandler;
+    }
+    this.config = config;
+    this.requestQueue = new LinkedBlockingQueue<>(config.getQueueCapacity());
+    this.rateLimiter = config.getRateLimit() > 0 ? new RateLimiter(config.getRateLimit()) : null;
+    this.subscriptionSlots = new Semaphore(config.getMaxSubscriptions());
   }
 
   public void start(int portNumber) {
-    System.out.println("server start");
+    AsyncLogger.info("Server starting on port " + portNumber);
     networkHandler.initializeServer(portNumber);
 
+    loadDataFromFile();
+    openWriteAheadLog();
+
+    // Snapshots only compact the log, accepted PUTs are already durable in it.
     fileSaveScheduler = Executors.newScheduledThreadPool(1);
     fileSaveScheduler.scheduleAtFixedRate(this::saveDataToFile, 0, 60, TimeUnit.SECONDS);
 
-    loadDataFromFile();
-
     cleanupScheduler = Executors.newScheduledThreadPool(1);
-    cleanupScheduler.scheduleAtFixedRate(this::cleanupStaleEntries, 0, 21, TimeUnit.SECONDS);
+    cleanupScheduler.scheduleAtFixedRate(() -> expireStaleServers(System.currentTimeMillis()), 1, 1,
+        TimeUnit.SECONDS);
+    cleanupScheduler.scheduleAtFixedRate(this::flushLiveness, 1, 1, TimeUnit.SECONDS);
+    if (rateLimiter != null) {
+      cleanupScheduler.scheduleAtFixedRate(() -> rateLimiter.evictIdle(System.nanoTime()), 10, 10,
+          TimeUnit.SECONDS);
+    }
+
+    workerPool = createWorkerPool();
+
+    if (eventLoopHandler != null) {
+      serveEvents();
+      return;
+    }
 
     initializeAcceptThread();
 
@@ -49,220 +121,903 @@ public class AggregationServer {
   }
 
   public JsonObject getWeatherData(String stationID) {
-    PriorityQueue<WeatherData> queue = weatherDataMap.get(stationID);
-    if (queue == null || queue.isEmpty()) {
-      return null;
-    }
-    return queue.peek().getData();
+    StationHistory history = weatherDataMap.get(stationID);
+    WeatherData latest = history == null ? null : history.latest();
+    return latest == null ? null : latest.getData();
   }
 
-  public int getLamportClockTime() {
+  public long getLamportClockTime() {
     return lamportClock.getTime();
   }
 
+  // Loads the last snapshot, then replays the write-ahead log written since.
   public void loadDataFromFile() {
-    Map<String, PriorityQueue<WeatherData>> loadedQueue = readDataFile(
-        "src" + File.separator + "data.json",
-        "src" + File.separator + "initData.json",
-        new TypeToken<ConcurrentHashMap<String, PriorityQueue<WeatherData>>>() {
-        }.getType());
+    Map<String, StationHistory> loadedQueue = readWeatherSnapshot();
 
-    Map<String, Long> loadedTimeService = readDataFile(
-        "src" + File.separator + "timeData.json",
-        "src" + File.separator + "initTimeData.json",
-        new TypeToken<ConcurrentHashMap<String, Long>>() {
-        }.getType());
+    if (loadedQueue != null) {
+      this.weatherDataMap = loadedQueue;
+      responseCache.clear();
+      loadedQueue.forEach((stationID, history) -> history.snapshot()
+          .forEach(reading -> addContribution(reading.getserverID(), stationID)));
+    }
+    long lastAlive = loadTimeMap();
+    replayWriteAheadLog();
+    restoreLiveness(lastAlive);
+
+    // New readings must be ordered after everything that was restored.
+    weatherDataMap.values().stream()
+        .map(StationHistory::latest)
+        .filter(Objects::nonNull)
+        .mapToLong(WeatherData::getTime)
+        .max()
+        .ifPresent(lamportClock::receive);
+  }
+
+  private void replayWriteAheadLog() {
+    try {
+      WriteAheadLog.replay(Paths.get(config.getDataDirectory()), record -> {
+        JsonElement entries = gson.fromJson(record, JsonElement.class);
+        if (entries.isJsonArray()) {
+          entries.getAsJsonArray().forEach(entry -> replayLogEntry(entry.getAsJsonObject()));
+        } else {
+          replayLogEntry(entries.getAsJsonObject());
+        }
+      });
+    } catch (IOException | JsonParseException e) {
+      AsyncLogger.error("Could not replay the write-ahead log", e);
+    }
+  }
 
-    this.weatherDataMap = loadedQueue;
-    this.timeMap = loadedTimeService;
+  // Stores one logged PUT as it was accepted, with its original Lamport and arrival times.
+  private void replayLogEntry(JsonObject entry) {
+    WeatherData weatherData = new WeatherData(
+        entry.getAsJsonObject("data"),
+        entry.get("time").getAsLong(),
+        entry.get("serverID").getAsString(),
+        entry.get("receivedAt").getAsLong());
+    storeWeatherData(entry.get("stationID").getAsString(), weatherData);
+    // A logged PUT is also the last time its content server was seen.
+    timeMap.merge(weatherData.getserverID(), weatherData.getReceivedAt(), Math::max);
   }
 
-  private void cleanupStaleEntries() {
-    long currentTime = System.currentTimeMillis();
+  // Returns the time the previous run was last known to be alive, 0 if only the
+  // last-seen times are known and -1 if there is no liveness data at all.
+  private long loadTimeMap() {
+    livenessStore = new LivenessStore(Paths.get(dataFile("liveness.log")));
+    try {
+      Map<String, Long> lastSeen = livenessStore.load();
+      if (!lastSeen.isEmpty() || livenessStore.getLastAlive() > 0) {
+        this.timeMap = new ConcurrentHashMap<>(lastSeen);
+        return livenessStore.getLastAlive();
+      }
+    } catch (IOException e) {
+      AsyncLogger.error("Could not read the liveness store", e);
+    }
+
+    // Data directories from before the liveness store kept the map in timeData.json.
+    Map<String, Long> loadedTimeService = readDataFile(
+        dataFile("timeData.json"),
+        dataFile("initTimeData.json"),
+        this::readTimeData);
+    if (loadedTimeService != null) {
+      this.timeMap = loadedTimeService;
+      return 0;
+    }
+    return -1;
+  }
 
-    // Identify stale server IDs
-    Set<String> staleServerIDs = timeMap.keySet().stream()
-        .filter(entry -> currentTime - timeMap.get(entry) > 20000)
-        .collect(Collectors.toSet());
+  // Gives every content server the time it had left before expiring when the
+  // previous run stopped: servers already stale by then are dropped, the others are
+  // moved forward by the downtime so a restart does not expire them all at once.
+  private void restoreLiveness(long lastAlive) {
+    long now = System.currentTimeMillis();
+    if (lastAlive < 0) {
+      // Nothing is known about the previous run, every contributor starts a fresh grace period.
+      stationsByServer.keySet().forEach(serverID -> timeMap.put(serverID, now));
+    } else if (!timeMap.isEmpty()) {
+      if (lastAlive == 0) {
+        lastAlive = Collections.max(timeMap.values());
+      }
+      long downtime = Math.max(0, now - lastAlive);
+      for (Map.Entry<String, Long> entry : timeMap.entrySet()) {
+        if (lastAlive - entry.getValue() > STALE_AFTER_MILLIS) {
+          timeMap.remove(entry.getKey());
+          livenessStore.recordRemoval(entry.getKey());
+        } else {
+          entry.setValue(Math.min(now, entry.getValue() + downtime));
+          livenessStore.recordHeartbeat(entry.getKey(), entry.getValue());
+        }
+      }
+    }
 
-    staleServerIDs.forEach(timeMap::remove);
+    // Readings of servers that expired before the restart were restored from the
+    // snapshot or the log, drop them again.
+    for (String serverID : stationsByServer.keySet()) {
+      if (!timeMap.containsKey(serverID)) {
+        evictServer(serverID, Long.MAX_VALUE);
+      }
+    }
+    timeMap.forEach(this::scheduleExpiry);
+  }
 
-    if (timeMap.keySet().isEmpty()) {
-      weatherDataMap.keySet().forEach(weatherDataMap::remove);
+  private void flushLiveness() {
+    LivenessStore store = livenessStore;
+    if (store == null) {
       return;
     }
+    try {
+      store.flush();
+    } catch (IOException e) {
+      AsyncLogger.error("Could not flush the liveness store", e);
+    }
+  }
+
+  // Called by start(), and by callers that drive processRequest without a listener.
+  public void openWriteAheadLog() {
+    try {
+      writeAheadLog = new WriteAheadLog(Paths.get(config.getDataDirectory()));
+    } catch (IOException e) {
+      AsyncLogger.warn("Write-ahead log unavailable, PUTs are only saved by snapshots: " + e.getMessage());
+    }
+  }
 
-    for (String stationID : weatherDataMap.keySet()) {
-      PriorityQueue<WeatherData> queue = weatherDataMap.get(stationID);
-      queue.removeIf(weatherData -> staleServerIDs.contains(weatherData.getserverID()));
+  private String dataFile(String name) {
+    return config.getDataDirectory() + File.separator + name;
+  }
+
+  // Runs every second. Only servers whose deadline passed are looked at, and expiring
+  // one only visits the stations it has readings in.
+  void expireStaleServers(long now) {
+    for (String serverID : expiryWheel.advance(now)) {
+      Long lastSeen = timeMap.get(serverID);
+      if (lastSeen != null && now - lastSeen <= STALE_AFTER_MILLIS) {
+        // Heard from since the deadline was set.
+        expiryWheel.schedule(serverID, lastSeen + STALE_AFTER_MILLIS);
+        continue;
+      }
 
-      if (queue.isEmpty()) {
-        weatherDataMap.remove(stationID);
+      scheduledServers.remove(serverID);
+      if (lastSeen == null) {
+        continue;
       }
+      if (timeMap.remove(serverID, lastSeen)) {
+        LivenessStore store = livenessStore;
+        if (store != null) {
+          store.recordRemoval(serverID);
+        }
+        evictServer(serverID, lastSeen);
+      } else {
+        // A PUT arrived in between, make sure it has a deadline.
+        Long current = timeMap.get(serverID);
+        if (current != null) {
+          scheduleExpiry(serverID, current);
+        }
+      }
+    }
+  }
+
+  private void scheduleExpiry(String serverID, long lastSeen) {
+    if (scheduledServers.add(serverID)) {
+      expiryWheel.schedule(serverID, lastSeen + STALE_AFTER_MILLIS);
     }
   }
 
+  // Drops the readings serverID sent up to lastSeen, a later one belongs to a PUT that
+  // raced with the expiry and is kept.
+  private void evictServer(String serverID, long lastSeen) {
+    Set<String> stations = stationsByServer.get(serverID);
+    if (stations == null) {
+      return;
+    }
+    int[] dropped = new int[1];
+    for (String stationID : stations) {
+      // Remove under the map's per-key lock so a concurrent PUT cannot add to a
+      // history that is being dropped, or lose its entry in the index.
+      weatherDataMap.compute(stationID, (key, history) -> {
+        int before = history == null ? 0 : history.size();
+        if (history != null
+            && history.removeIf(reading -> reading.getserverID().equals(serverID) && reading.getReceivedAt() <= lastSeen)) {
+          responseCache.remove(key);
+          dropped[0] += before - history.size();
+        }
+        if (history == null || !history.anyMatch(reading -> reading.getserverID().equals(serverID))) {
+          stations.remove(stationID);
+        }
+        return history == null || history.isEmpty() ? null : history;
+      });
+    }
+    stationsByServer.computeIfPresent(serverID, (key, remaining) -> remaining.isEmpty() ? null : remaining);
+    if (!stationsByServer.containsKey(serverID)) {
+      WeatherData.releaseServerID(serverID);
+    }
+    metrics.recordEviction(dropped[0]);
+  }
+
+  // Called with the station's map entry locked, see evictServer.
+  private void addContribution(String serverID, String stationID) {
+    Set<String> stations = stationsByServer.get(serverID);
+    if (stations != null && stations.contains(stationID)) {
+      return;
+    }
+    stationsByServer.compute(serverID, (key, existing) -> {
+      Set<String> target = existing != null ? existing : ConcurrentHashMap.newKeySet();
+      target.add(stationID);
+      return target;
+    });
+  }
+
+  // A connection is only taken off the admission queue once a worker is free for it,
+  // so waiting connections stay in the bounded queue instead of the pool's own.
   private void processClientRequests() {
-    System.out.println("Processing client requests...\n");
+    AsyncLogger.info("Processing client requests");
+    Semaphore freeWorkers = new Semaphore(config.getWorkerMode() == ServerConfig.WorkerMode.FIXED_POOL
+        ? config.getWorkerThreads() : Integer.MAX_VALUE);
     try {
       while (!shutdownFlag) {
-        Socket clientSocket = waitForClient();
-        if (clientSocket != null) {
-          System.out.println("New connection\n");
-          handleClientSocket(clientSocket);
+        if (!freeWorkers.tryAcquire(10, TimeUnit.MILLISECONDS)) {
+          continue;
         }
+        AcceptedConnection connection = waitForClient();
+        if (connection == null) {
+          freeWorkers.release();
+          continue;
+        }
+        AsyncLogger.debug("New connection");
+        workerPool.execute(() -> {
+          try {
+            metrics.recordAcceptWait(System.nanoTime() - connection.acceptedAt);
+            handleClientSocket(connection.socket);
+          } finally {
+            freeWorkers.release();
+          }
+        });
       }
     } catch (Exception e) {
-      e.printStackTrace();
+      AsyncLogger.error("Request dispatch stopped", e);
+    } finally {
+      stopScheduledTask(workerPool, 5);
+      networkHandler.closeResources();
+    }
+  }
+
+  private void serveEvents() {
+    AsyncLogger.info("Serving client requests from the event loop");
+    try {
+      eventLoopHandler.serve(new RequestProcessor() {
+        @Override
+        public String greeting() {
+          return AggregationServer.this.greeting();
+        }
+
+        @Override
+        public String process(HttpRequest request) {
+          return processRequest(request);
+        }
+
+        @Override
+        public String errorResponse(String status) {
+          return constructResponse(status, null, null);
+        }
+
+        @Override
+        public boolean isRunning() {
+          return !shutdownFlag;
+        }
+      }, workerPool);
+    } catch (Exception e) {
+      AsyncLogger.error("Event loop stopped", e);
     } finally {
+      stopScheduledTask(workerPool, 5);
       networkHandler.closeResources();
     }
   }
 
-  private String extractContent(List<String> lineList) {
-    int startIndex = lineList.indexOf("") + 1;
-    return String.join("", lineList.subList(startIndex, lineList.size()));
+  private ExecutorService createWorkerPool() {
+    if (config.getWorkerMode() == ServerConfig.WorkerMode.PER_CONNECTION) {
+      try {
+        // Virtual threads are only available from JDK 21, fall back to a cached pool.
+        return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (ReflectiveOperationException e) {
+        return Executors.newCachedThreadPool();
+      }
+    }
+    return Executors.newFixedThreadPool(config.getWorkerThreads());
   }
 
-  private String processGet(Map<String, String> headers, String content) {
-    int lamportTimestamp = extractLamportTime(headers);
-    String stationKey = findStationId(headers);
+  private String processGet(HttpRequest request) {
+    long lamportTimestamp = extractLamportTime(request.getHeaders());
+    Map<String, String> query = parseQuery(request.getPath());
+    if (query != null) {
+      try {
+        if (query.containsKey("subscribe")) {
+          List<String> stationIDs = stationList(query.get("subscribe"));
+          String sinceValue = query.getOrDefault("since", "-1");
+          if (stationIDs.isEmpty() || !isNumber(sinceValue)) {
+            return constructResponse("400 Bad Request", null, request);
+          }
+          if (!subscriptionSlots.tryAcquire()) {
+            metrics.recordRejection("subscriptions");
+            return constructRetryResponse("503 Service Unavailable", 1, request);
+          }
+          try {
+            return processSubscribe(stationIDs, Long.parseLong(sinceValue), request);
+          } finally {
+            subscriptionSlots.release();
+          }
+        }
+        if (query.containsKey("all")) {
+          List<String> stationIDs = new ArrayList<>(weatherDataMap.keySet());
+          Collections.sort(stationIDs);
+          return processBulkGet(stationIDs, lamportTimestamp, request);
+        }
+        if (query.containsKey("ids")) {
+          return processBulkGet(stationList(query.get("ids")), lamportTimestamp, request);
+        }
+      } catch (IllegalArgumentException e) {
+        // Malformed percent-encoding or since.
+        return constructResponse("400 Bad Request", null, request);
+      }
+    }
+    String stationKey = findStationId(request.getHeaders());
     if (stationKey == null) {
-      return constructResponse("204 No Content", null);
+      return constructResponse("204 No Content", null, request);
+    }
+    CachedBody cached = responseCache.get(stationKey);
+    if (cached == null) {
+      cached = cacheLatest(stationKey);
     }
-    PriorityQueue<WeatherData> dataQueue = weatherDataMap.get(stationKey);
-    if (isQueueEmpty(dataQueue)) {
-      return constructResponse("204 No Content", null);
+    // The clock has already moved past every stored reading, so the latest one nearly
+    // always matches; an older requested time takes the history lookup below.
+    if (cached != null && cached.time <= lamportTimestamp) {
+      return constructCachedResponse("200 OK", cached, request);
     }
+    StationHistory history = weatherDataMap.get(stationKey);
+    if (isHistoryEmpty(history)) {
+      return constructResponse("204 No Content", null, request);
+    }
+
+    Optional<WeatherData> matchingData = locateWeatherData(history, lamportTimestamp);
+    return matchingData.map(data -> constructResponse("200 OK", data.getJson(), request))
+        .orElse(constructResponse("204 No Content", null, request));
+  }
+
+  // The latest reading of every listed station as one JSON array, in the listed order.
+  // Stations without a reading at the requested time are left out. The body is built
+  // in memory rather than streamed: both transports take a whole response from
+  // processRequest, which keeps pipelined responses in order and lets NIO write
+  // without blocking a worker. The readings are looked up first so the body is
+  // allocated once at its final size.
+  private String processBulkGet(List<String> stationIDs, long lamportTimestamp, HttpRequest request) {
+    List<String> sources = new ArrayList<>(stationIDs.size());
+    int[] offsets = new int[stationIDs.size()];
+    int length = 2;
+    for (String stationID : stationIDs) {
+      CachedBody cached = responseCache.get(stationID);
+      if (cached == null) {
+        cached = cacheLatest(stationID);
+      }
+      if (cached != null && cached.time <= lamportTimestamp) {
+        offsets[sources.size()] = cached.bodyOffset;
+        sources.add(cached.encoded);
+      } else {
+        StationHistory history = weatherDataMap.get(stationID);
+        WeatherData reading = history == null ? null : history.latestAtOrBefore(lamportTimestamp);
+        if (reading == null) {
+          continue;
+        }
+        sources.add(reading.getJson());
+      }
+      length += sources.get(sources.size() - 1).length() - offsets[sources.size() - 1] + 1;
+    }
+    StringBuilder body = new StringBuilder(length).append('[');
+    for (int i = 0; i < sources.size(); i++) {
+      appendElement(body, sources.get(i), offsets[i]);
+    }
+    return constructResponse("200 OK", body.append(']').toString(), request);
+  }
 
-    Optional<WeatherData> matchingData = locateWeatherData(dataQueue, lamportTimestamp);
-    return matchingData.map(data -> constructResponse("200 OK", data.getData().toString()))
-        .orElse(constructResponse("204 No Content", null));
+  private static void appendElement(StringBuilder array, String source, int offset) {
+    if (array.length() > 1) {
+      array.append(',');
+    }
+    array.append(source, offset, source.length());
   }
 
-  private Socket waitForClient() throws InterruptedException {
+  // Waits until one of the stations has a reading newer than since, then answers with
+  // the latest reading of each such station. The LastReadingTime header carries the
+  // newest time sent, which the client passes as since on its next request. Answers
+  // 204 when nothing arrives within the long-poll timeout.
+  private String processSubscribe(List<String> stationIDs, long since, HttpRequest request) {
+    long deadline = System.currentTimeMillis() + config.getLongPollTimeoutMillis();
+    while (true) {
+      // Taken before looking, so a reading stored in between still wakes us.
+      CompletableFuture<Void> changed = updateSignals.next(stationIDs);
+      try {
+        StringBuilder body = new StringBuilder().append('[');
+        long newest = since;
+        for (String stationID : stationIDs) {
+          StationHistory history = weatherDataMap.get(stationID);
+          WeatherData latest = history == null ? null : history.latest();
+          if (latest != null && latest.getTime() > since) {
+            appendElement(body, latest.getJson(), 0);
+            newest = Math.max(newest, latest.getTime());
+          }
+        }
+        if (body.length() > 1) {
+          return appendStatusLines(new StringBuilder(), "200 OK", request)
+              .append("LastReadingTime: ").append(newest).append("\r\n")
+              .append(encodeBody(body.append(']').toString())).toString();
+        }
+
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0 || shutdownFlag) {
+          return constructResponse("204 No Content", null, request);
+        }
+        changed.get(remaining, TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        return constructResponse("204 No Content", null, request);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return constructResponse("503 Service Unavailable", null, request);
+      } catch (ExecutionException e) {
+        // Signals only ever complete normally.
+      } finally {
+        // Unregisters from every station, signalled or not, so stations that never get
+        // a reading are not kept by the polls that watched them.
+        updateSignals.release(stationIDs, changed);
+      }
+    }
+  }
+
+  // Query parameters of the path with their raw values, null without a query.
+  private static Map<String, String> parseQuery(String path) {
+    int queryStart = path == null ? -1 : path.indexOf('?');
+    if (queryStart < 0) {
+      return null;
+    }
+    Map<String, String> parameters = new HashMap<>();
+    for (String parameter : path.substring(queryStart + 1).split("&")) {
+      int separator = parameter.indexOf('=');
+      if (separator < 0) {
+        parameters.put(parameter, "");
+      } else {
+        parameters.put(parameter.substring(0, separator), parameter.substring(separator + 1));
+      }
+    }
+    return parameters;
+  }
+
+  // A comma-separated, percent-encoded list of station IDs.
+  private List<String> stationList(String value) {
+    List<String> stationIDs = new ArrayList<>();
+    for (String stationID : value.split(",")) {
+      String decoded = URLDecoder.decode(stationID, StandardCharsets.UTF_8);
+      if (isValidStation(decoded)) {
+        stationIDs.add(decoded);
+      }
+    }
+    return stationIDs;
+  }
+
+  private AcceptedConnection waitForClient() throws InterruptedException {
     if (shutdownFlag)
       return null;
     return requestQueue.poll(10, TimeUnit.MILLISECONDS);
   }
 
+  // First line a client reads on a new connection, before sending any request.
+  private String greeting() {
+    return "LamportClock: " + lamportClock.getTime();
+  }
+
   private void handleClientSocket(Socket clientSocket) {
     try {
-      String requestData = networkHandler.waitForDataFromClient(clientSocket);
-      if (requestData != null) {
-        String responseData = processRequest(requestData);
-        networkHandler.sendResponseToClient(responseData, clientSocket);
+      clientSocket.setSoTimeout(config.getKeepAliveTimeoutMillis());
+      blockingHandler.sendResponseToClient(greeting() + "\r\n\r\n", clientSocket);
+      // Requests on a kept-alive connection are answered one after another, so
+      // pipelined requests get their responses in order.
+      boolean served = false;
+      while (!shutdownFlag && (!served || awaitNextRequest(clientSocket))) {
+        served = true;
+        HttpRequest request = blockingHandler.waitForRequestFromClient(clientSocket);
+        if (request == null) {
+          break;
+        }
+        String responseData = processRequest(request);
+        blockingHandler.sendResponseToClient(responseData, clientSocket);
+        if (NetworkHandler.closesConnection(responseData)) {
+          break;
+        }
       }
+    } catch (HttpParseException e) {
+      blockingHandler.sendResponseToClient(constructResponse(e.getStatus(), null, null), clientSocket);
     } catch (Exception e) {
-      e.printStackTrace();
+      AsyncLogger.error("Error handling a connection", e);
     } finally {
+      blockingHandler.closeClientConnection(clientSocket);
+    }
+  }
+
+  // Waits out the keep-alive time for the next request in short steps. With a fixed
+  // pool an idle connection holds a worker, so it is closed as soon as connections
+  // are queued for one; clients reopen a kept-alive connection the server closed.
+  private boolean awaitNextRequest(Socket clientSocket) {
+    long deadline = System.currentTimeMillis() + config.getKeepAliveTimeoutMillis();
+    while (!shutdownFlag) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        return false;
+      }
+      if (blockingHandler.awaitRequest(clientSocket, (int) Math.min(remaining, IDLE_CHECK_MILLIS))) {
+        return true;
+      }
+      if (config.getWorkerMode() == ServerConfig.WorkerMode.FIXED_POOL && !requestQueue.isEmpty()) {
+        AsyncLogger.debug("Closing an idle connection for a queued one");
+        return false;
+      }
+    }
+    return false;
+  }
+
+  private interface JsonContentReader<T> {
+    T read(JsonReader reader) throws IOException;
+  }
+
+  private interface JsonContentWriter {
+    void write(JsonWriter writer) throws IOException;
+  }
+
+  private interface FileContentWriter {
+    void write(FileChannel channel) throws IOException;
+  }
+
+  // Reads whichever of data.bin and data.json was saved last, so switching
+  // --snapshot-format keeps the data of the previous format.
+  private Map<String, StationHistory> readWeatherSnapshot() {
+    Path binaryFile = Paths.get(dataFile("data.bin"));
+    Path jsonFile = Paths.get(dataFile("data.json"));
+    if (Files.exists(binaryFile) && lastModified(binaryFile) >= lastModified(jsonFile)) {
       try {
-        clientSocket.close();
+        return BinarySnapshot.read(binaryFile, config.getRetentionPolicy());
       } catch (IOException e) {
-        e.printStackTrace();
+        AsyncLogger.warn("Ignoring unreadable " + binaryFile + ": " + e.getMessage());
       }
     }
+    return readDataFile(dataFile("data.json"), dataFile("initData.json"), this::readWeatherData);
   }
 
-  private <T> T readDataFile(String file, String initFile, Type type) {
+  private long lastModified(Path file) {
     try {
-      String jsonData = new String(Files.readAllBytes(Paths.get(file)));
-      return gson.fromJson(jsonData, type);
+      return Files.getLastModifiedTime(file).toMillis();
+    } catch (IOException e) {
+      return Long.MIN_VALUE;
+    }
+  }
+
+  private <T> T readDataFile(String file, String initFile, JsonContentReader<T> content) {
+    try {
+      return readJsonFile(file, content);
     } catch (IOException e) {
       try {
-        String data = new String(Files.readAllBytes(Paths.get(initFile)));
-        return gson.fromJson(data, type);
+        return readJsonFile(initFile, content);
       } catch (IOException ex) {
-        ex.printStackTrace();
+        AsyncLogger.error("Could not read " + initFile, ex);
+        return null;
+      }
+    } catch (JsonParseException | IllegalStateException e) {
+      AsyncLogger.warn("Ignoring unreadable " + file + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  private <T> T readJsonFile(String file, JsonContentReader<T> content) throws IOException {
+    try (JsonReader reader = new JsonReader(Files.newBufferedReader(Paths.get(file), StandardCharsets.UTF_8))) {
+      if (reader.peek() == JsonToken.NULL) {
         return null;
       }
+      return content.read(reader);
+    }
+  }
+
+  // Readings are added to their history one at a time, so only the loaded histories
+  // and a single parsed reading are held in memory.
+  private Map<String, StationHistory> readWeatherData(JsonReader reader) throws IOException {
+    Map<String, StationHistory> histories = new ConcurrentHashMap<>();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      String stationID = reader.nextName();
+      StationHistory history = new StationHistory(config.getRetentionPolicy());
+      reader.beginArray();
+      while (reader.hasNext()) {
+        history.add(gson.fromJson(reader, WeatherData.class));
+      }
+      reader.endArray();
+      histories.put(stationID, history);
+    }
+    reader.endObject();
+    return histories;
+  }
+
+  private Map<String, Long> readTimeData(JsonReader reader) throws IOException {
+    Map<String, Long> times = new ConcurrentHashMap<>();
+    reader.beginObject();
+    while (reader.hasNext()) {
+      times.put(reader.nextName(), reader.nextLong());
+    }
+    reader.endObject();
+    return times;
+  }
+
+  private void writeWeatherData(JsonWriter writer) throws IOException {
+    writer.beginObject();
+    for (Map.Entry<String, StationHistory> entry : weatherDataMap.entrySet()) {
+      writer.name(entry.getKey());
+      writer.beginArray();
+      for (WeatherData reading : entry.getValue().snapshot()) {
+        gson.toJson(reading, WeatherData.class, writer);
+      }
+      writer.endArray();
     }
+    writer.endObject();
   }
 
   public String processRequest(String inputData) {
-    List<String> lineList = Arrays.asList(inputData.split("\r\n"));
-    String reqMethod = lineList.get(0).split(" ")[0];
+    try {
+      return processRequest(HttpRequestParser.parseMessage(inputData.getBytes(StandardCharsets.UTF_8)));
+    } catch (HttpParseException e) {
+      return constructResponse(e.getStatus(), null, null);
+    }
+  }
+
+  public String processRequest(HttpRequest request) {
+    long start = System.nanoTime();
+    String method = request.getMethod().toUpperCase();
+    String response;
+    String refusal = refuseUnderLoad(method, request, start);
+    if (refusal != null) {
+      response = refusal;
+    } else if (!isNumber(request.getHeaders().get("LamportClock"))) {
+      response = constructResponse("400 Bad Request", null, request);
+    } else {
+      switch (method) {
+        case "PUT":
+          response = processPut(request);
+          break;
+        case "GET":
+          response = isMetricsPath(request.getPath()) ? processMetrics(request) : processGet(request);
+          break;
+        default:
+          method = "OTHER";
+          response = constructResponse("400 Bad Request", null, request);
+      }
+    }
+    metrics.recordRequest(method, response.substring(9, 12), System.nanoTime() - start);
+    return response;
+  }
+
+  // 429 for a ServerID over its rate limit, 503 for the method --overload-policy gives
+  // up first while the admission queue is over half full, otherwise null.
+  private String refuseUnderLoad(String method, HttpRequest request, long now) {
+    ServerConfig.OverloadPolicy policy = config.getOverloadPolicy();
+    String shed = policy == ServerConfig.OverloadPolicy.PREFER_PUT ? "GET"
+        : policy == ServerConfig.OverloadPolicy.PREFER_GET ? "PUT" : null;
+    if (method.equals(shed) && requestQueue.size() * 2 > config.getQueueCapacity()
+        && !isMetricsPath(request.getPath())) {
+      metrics.recordRejection("priority");
+      // Closed, which frees the worker for a queued connection.
+      return constructRetryResponse("503 Service Unavailable", 1, null);
+    }
+
+    String serverID = request.getHeader("ServerID");
+    if (rateLimiter != null && serverID != null) {
+      long waitNanos = rateLimiter.tryAcquire(serverID, now);
+      if (waitNanos > 0) {
+        metrics.recordRejection("rate_limit");
+        long seconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+        return constructRetryResponse("429 Too Many Requests", seconds, request);
+      }
+    }
+    return null;
+  }
 
-    Map<String, String> headerMap = extractHeaders(lineList);
-    String bodyContent = extractContent(lineList);
-    switch (reqMethod.toUpperCase()) {
-      case "PUT":
-        return processPut(headerMap, bodyContent);
-      case "GET":
-        return processGet(headerMap, bodyContent);
-      default:
-        return constructResponse("400 Bad Request", null);
+  // True for a missing value, which the handlers read as -1.
+  private static boolean isNumber(String value) {
+    if (value == null) {
+      return true;
+    }
+    try {
+      Long.parseLong(value);
+      return true;
+    } catch (NumberFormatException e) {
+      return false;
     }
   }
 
-  private synchronized void saveDataToFile() {
-    saveObjectToFile(weatherDataMap, "src" + File.separator + "data.json", "src" + File.separator + "initData.json");
-    saveObjectToFile(weatherDataMap, "src" + File.separator + "timeData.json",
-        "src" + File.separator + "initTimeData.json");
+  private static boolean isMetricsPath(String path) {
+    return path != null && (path.equals("/metrics") || path.startsWith("/metrics?"));
+  }
+
+  // Prometheus text format. Gauges are read here, the rest is counted as it happens.
+  private String processMetrics(HttpRequest request) {
+    StringBuilder body = new StringBuilder();
+    metrics.render(body);
+    ServerMetrics.gauge(body, "weather_request_queue_depth", "Accepted connections waiting for a worker.",
+        requestQueue.size());
+    ServerMetrics.gauge(body, "weather_request_queue_capacity", "Connections the request queue admits.",
+        config.getQueueCapacity());
+    ServerMetrics.gauge(body, "weather_lamport_clock", "Current Lamport time of the server.", lamportClock.getTime());
+    ServerMetrics.gauge(body, "weather_content_servers", "Content servers with unexpired readings.", timeMap.size());
+    ServerMetrics.gauge(body, "weather_stations", "Stations with stored readings.", weatherDataMap.size());
+    ServerMetrics.header(body, "weather_station_readings", "gauge", "Readings kept per station.");
+    weatherDataMap.forEach((stationID, history) -> body.append("weather_station_readings{station=\"")
+        .append(ServerMetrics.escapeLabel(stationID)).append("\"} ").append(history.size()).append('\n'));
+
+    String text = body.toString();
+    return appendStatusLines(new StringBuilder(), "200 OK", request)
+        .append("Content-Type: text/plain; version=0.0.4\r\nContent-Length: ")
+        .append(text.getBytes(StandardCharsets.UTF_8).length).append("\r\n\r\n").append(text).toString();
+  }
+
+  ServerMetrics getMetrics() {
+    return metrics;
   }
 
-  private synchronized void saveObjectToFile(
-      Map<String, PriorityQueue<WeatherData>> object,
+  synchronized void saveDataToFile() {
+    long walGeneration = rollWriteAheadLog();
+    boolean saved = saveWeatherSnapshot();
+
+    // Older segments are covered by the snapshot. If saving failed they are kept and
+    // replayed again, duplicates are ignored by StationHistory.
+    if (saved && walGeneration > 0) {
+      try {
+        writeAheadLog.deleteSegmentsBefore(walGeneration);
+      } catch (IOException e) {
+        AsyncLogger.error("Could not delete write-ahead log segments", e);
+      }
+    }
+  }
+
+  // Returns the generation of the new segment, or 0 if there is no log to roll.
+  private long rollWriteAheadLog() {
+    WriteAheadLog wal = writeAheadLog;
+    if (wal == null) {
+      return 0;
+    }
+    checkpointLock.writeLock().lock();
+    try {
+      return wal.roll().get();
+    } catch (ExecutionException e) {
+      AsyncLogger.error("Could not roll the write-ahead log", e);
+      return 0;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return 0;
+    } finally {
+      checkpointLock.writeLock().unlock();
+    }
+  }
+
+  private boolean saveWeatherSnapshot() {
+    long start = System.nanoTime();
+    boolean binary = config.getSnapshotFormat() == ServerConfig.SnapshotFormat.BINARY;
+    String snapshotFile = dataFile(binary ? "data.bin" : "data.json");
+    boolean saved = binary
+        ? saveObjectToFile(channel -> BinarySnapshot.write(channel, weatherDataMap), dataFile("data.bin"),
+            dataFile("initData.bin"))
+        : saveObjectToFile(json(this::writeWeatherData), dataFile("data.json"), dataFile("initData.json"));
+    if (!saved) {
+      metrics.recordSnapshotFailure();
+      return false;
+    }
+    try {
+      metrics.recordSnapshot(System.nanoTime() - start, Files.size(Paths.get(snapshotFile)));
+      // The snapshot in the other format is now outdated.
+      Files.deleteIfExists(Paths.get(dataFile(binary ? "data.json" : "data.bin")));
+    } catch (IOException e) {
+      AsyncLogger.error("Could not clean up after the snapshot", e);
+    }
+    return true;
+  }
+
+  private static FileContentWriter json(JsonContentWriter content) {
+    return channel -> {
+      JsonWriter writer = new JsonWriter(new BufferedWriter(
+          new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8)));
+      content.write(writer);
+      writer.flush();
+    };
+  }
+
+  // Streams the content into initFile and moves it over filePath, the whole file is
+  // never built in memory.
+  private synchronized boolean saveObjectToFile(
+      FileContentWriter content,
       String filePath,
       String initFile) {
     try {
-      String jsonData = gson.toJson(object);
-
-      Files.write(Paths.get(initFile), jsonData.getBytes());
+      // Forced before the move, the log segments it replaces are deleted afterwards.
+      try (FileChannel channel = FileChannel.open(Paths.get(initFile), StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        content.write(channel);
+        channel.force(true);
+      }
 
       Files.move(Paths.get(initFile),
           Paths.get(filePath),
           StandardCopyOption.REPLACE_EXISTING,
           StandardCopyOption.ATOMIC_MOVE);
-
-    } catch (IOException e) {
-      e.printStackTrace();
+      return true;
+    } catch (IOException | JsonIOException e) {
+      AsyncLogger.error("Could not save " + filePath, e);
+      return false;
     }
   }
 
-  private Map<String, String> extractHeaders(List<String> lineList) {
-    Map<String, String> headerMap = new HashMap<>();
-    for (String line : lineList) {
-      if (line.contains(": ")) {
-        String[] parts = line.split(": ", 2);
-        headerMap.put(parts[0], parts[1]);
+  // UpdateType "heartbeat" only refreshes the sender's liveness and "patch" carries the
+  // changed fields of readings it sent before. Both answer 409 when the server does not
+  // hold what they refer to, and the content server then sends its full data again.
+  private String processPut(HttpRequest request) {
+    long lamportTimestamp = extractLamportTime(request.getHeaders());
+    String serverKey = request.getHeader("ServerID");
+    String updateType = request.getHeader("UpdateType");
+    try {
+      if ("heartbeat".equalsIgnoreCase(updateType)) {
+        if (!isValidSource(serverKey)) {
+          return constructResponse("400 Bad Request", null, request);
+        }
+        return timeMap.containsKey(serverKey) ? generateResponse(serverKey, request)
+            : constructResponse("409 Conflict", null, request);
+      }
+      if ("patch".equalsIgnoreCase(updateType)) {
+        return processPatch(request, lamportTimestamp, serverKey);
+      }
+      if (isValidSource(serverKey) && processData(request.getBodyReader(), lamportTimestamp, serverKey)) {
+        return generateResponse(serverKey, request);
+      } else {
+        return constructResponse("400 Bad Request", null, request);
       }
+    } catch (IOException e) {
+      AsyncLogger.error("Write-ahead log error", e);
+      return constructResponse("500 Internal Server Error", null, request);
     }
-    return headerMap;
   }
 
-  private String processPut(Map<String, String> headers, String content) {
-    int lamportTimestamp = extractLamportTime(headers);
-    String serverKey = headers.get("ServerID");
-    if (isValidSource(serverKey) && processData(content, lamportTimestamp, serverKey)) {
-      return generateResponse(serverKey);
-    } else {
-      return constructResponse("400 Bad Request", null);
+  // Queues an accepted connection, or answers 503 to it or, with SHED_OLDEST, to the
+  // longest waiting one when the queue is full. Only the accept thread calls this.
+  private void admit(AcceptedConnection connection) {
+    if (requestQueue.offer(connection)) {
+      AsyncLogger.debug("Added connection to request queue");
+      return;
+    }
+    if (config.getOverloadPolicy() != ServerConfig.OverloadPolicy.SHED_OLDEST) {
+      metrics.recordRejection("queue_full");
+      reject(connection.socket);
+      return;
     }
+    do {
+      AcceptedConnection oldest = requestQueue.poll();
+      if (oldest != null) {
+        metrics.recordRejection("shed_oldest");
+        reject(oldest.socket);
+      }
+    } while (!requestQueue.offer(connection));
+  }
+
+  // Nothing has been written to the socket yet, so the short response fits in its send
+  // buffer and the accept thread does not wait on the client.
+  private void reject(Socket socket) {
+    blockingHandler.sendResponseToClient(constructRetryResponse("503 Service Unavailable", 1, null), socket);
+    blockingHandler.closeClientConnection(socket);
   }
 
   private void initializeAcceptThread() {
-    System.out.println("Initializing accept thread...\n");
+    AsyncLogger.info("Initializing accept thread");
     acceptThread = new Thread(() -> {
       while (!Thread.currentThread().isInterrupted()) {
-        try {
-          Socket clientSocket = networkHandler.acceptIncomingClient();
-          if (clientSocket != null) {
-            String clockValue = "LamportClock: " + lamportClock.getTime() + "\r\n";
-            PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true);
-            out.println(clockValue);
-            out.flush();
-
-            requestQueue.put(clientSocket);
-            System.out.println("Added connection to request queue\n");
-          }
-        } catch (IOException e) {
-          if (Thread.currentThread().isInterrupted()) {
-            break;
-          }
-          e.printStackTrace();
-        } catch (InterruptedException e) {
-          throw new RuntimeException(e);
+        // The greeting is sent by the worker, so a slow client cannot hold up accepts.
+        Socket clientSocket = blockingHandler.acceptIncomingClient();
+        if (clientSocket != null) {
+          admit(new AcceptedConnection(clientSocket, System.nanoTime()));
         }
       }
     });
@@ -273,62 +1028,176 @@ public class AggregationServer {
     return stationId != null && !stationId.isEmpty();
   }
 
-  private String constructResponse(String status, String json) {
-    StringBuilder result = new StringBuilder();
+  // Encodes the station's latest reading and caches it, null if there is none.
+  private CachedBody cacheLatest(String stationID) {
+    CachedBody[] filled = new CachedBody[1];
+    weatherDataMap.computeIfPresent(stationID, (key, history) -> {
+      WeatherData latest = history.latest();
+      if (latest != null) {
+        filled[0] = new CachedBody(latest.getTime(), encodeBody(latest.getJson()), latest.getJson().length());
+        responseCache.put(key, filled[0]);
+      }
+      return history;
+    });
+    return filled[0];
+  }
+
+  // The headers that describe a JSON body, followed by the body.
+  private static String encodeBody(String json) {
+    return "Content-Type: application/json\r\nContent-Length: " + json.getBytes(StandardCharsets.UTF_8).length
+        + "\r\n\r\n" + json;
+  }
 
-    result.append("HTTP/1.1 ").append(status).append("\r\n");
-    result.append("LamportClock: ").append(lamportClock.send()).append("\r\n");
+  private String constructCachedResponse(String status, CachedBody body, HttpRequest request) {
+    return appendStatusLines(new StringBuilder(), status, request).append(body.encoded).toString();
+  }
+
+  // A null request (unparseable input) always closes the connection.
+  private String constructResponse(String status, String json, HttpRequest request) {
+    StringBuilder result = appendStatusLines(new StringBuilder(), status, request);
 
     if (json != null) {
-      result.append("Content-Type: application/json\r\n");
-      result.append("Content-Length: ").append(json.length()).append("\r\n\r\n");
-      result.append(json);
+      result.append(encodeBody(json));
+    } else if (!status.startsWith("204")) {
+      // Persistent connections need an explicit length to find the end of the response.
+      result.append("Content-Length: 0\r\n\r\n");
+    } else {
+      result.append("\r\n");
     }
     return result.toString();
   }
 
-  private int extractLamportTime(Map<String, String> headers) {
-    int lamportTime = Integer.parseInt(headers.getOrDefault("LamportClock", "-1"));
-    lamportClock.receive(lamportTime);
-    return lamportClock.getTime();
+  private String constructRetryResponse(String status, long retryAfterSeconds, HttpRequest request) {
+    return appendStatusLines(new StringBuilder(), status, request)
+        .append("Retry-After: ").append(retryAfterSeconds).append("\r\nContent-Length: 0\r\n\r\n").toString();
+  }
+
+  private StringBuilder appendStatusLines(StringBuilder result, String status, HttpRequest request) {
+    result.append("HTTP/1.1 ").append(status).append("\r\n");
+    result.append("LamportClock: ").append(lamportClock.send()).append("\r\n");
+    return result.append("Connection: ").append(request != null && request.isKeepAlive() ? "keep-alive" : "close")
+        .append("\r\n");
   }
 
-  private boolean isQueueEmpty(PriorityQueue<WeatherData> queue) {
-    return queue == null || queue.isEmpty();
+  private long extractLamportTime(Map<String, String> headers) {
+    long lamportTime = Long.parseLong(headers.getOrDefault("LamportClock", "-1"));
+    return lamportClock.receive(lamportTime);
   }
 
-  private Optional<WeatherData> locateWeatherData(PriorityQueue<WeatherData> queue, int lamportTime) {
-    return queue.stream()
-        .filter(data -> data.getTime() <= lamportTime)
-        .findFirst();
+  private boolean isHistoryEmpty(StationHistory history) {
+    return history == null || history.isEmpty();
+  }
+
+  private Optional<WeatherData> locateWeatherData(StationHistory history, long lamportTime) {
+    return Optional.ofNullable(history.latestAtOrBefore(lamportTime));
   }
 
   private boolean isValidSource(String serverID) {
     return serverID != null && !serverID.isEmpty();
   }
 
-  private boolean processData(String content, int lamportTime, String serverID) {
+  // The body is one station's reading, or an array of readings for several stations
+  // that is accepted or rejected as a whole.
+  private boolean processData(Reader content, long lamportTime, String serverID) throws IOException {
     try {
-      JsonObject weatherDataJSON = gson.fromJson(content, JsonObject.class);
-      String stationID = extractID(weatherDataJSON);
-      WeatherData newWeatherData = new WeatherData(weatherDataJSON, lamportTime, serverID);
-      weatherDataMap.computeIfAbsent(stationID, k -> new PriorityQueue<>()).add(newWeatherData);
+      JsonElement body = gson.fromJson(content, JsonElement.class);
+      Map<String, WeatherData> readings = new LinkedHashMap<>();
+      if (body != null && body.isJsonArray()) {
+        for (JsonElement element : body.getAsJsonArray()) {
+          if (!collectReading(element, lamportTime, serverID, readings)) {
+            return false;
+          }
+        }
+      } else if (body == null || !collectReading(body, lamportTime, serverID, readings)) {
+        return false;
+      }
+      if (readings.isEmpty()) {
+        return false;
+      }
+      acceptWeatherData(readings);
       return true;
     } catch (JsonParseException e) {
-      System.err.println("JSON Parsing Error: " + e.getMessage());
+      AsyncLogger.debug("JSON Parsing Error: " + e.getMessage());
       return false;
     }
   }
 
-  private String generateResponse(String serverID) {
+  private String processPatch(HttpRequest request, long lamportTime, String serverID) throws IOException {
+    JsonElement body;
+    try {
+      body = gson.fromJson(request.getBodyReader(), JsonElement.class);
+    } catch (JsonParseException e) {
+      AsyncLogger.debug("JSON Parsing Error: " + e.getMessage());
+      return constructResponse("400 Bad Request", null, request);
+    }
+    if (!isValidSource(serverID) || body == null || body.isJsonNull()) {
+      return constructResponse("400 Bad Request", null, request);
+    }
+    JsonArray patches = body.isJsonArray() ? body.getAsJsonArray() : new JsonArray();
+    if (!body.isJsonArray()) {
+      patches.add(body);
+    }
+
+    Map<String, WeatherData> readings = new LinkedHashMap<>();
+    for (JsonElement element : patches) {
+      String stationID = element.isJsonObject() ? extractID(element.getAsJsonObject()) : null;
+      if (!isValidStation(stationID)) {
+        return constructResponse("400 Bad Request", null, request);
+      }
+      StationHistory history = weatherDataMap.get(stationID);
+      WeatherData base = history == null ? null : history.latestFrom(serverID);
+      if (base == null) {
+        return constructResponse("409 Conflict", null, request);
+      }
+      readings.put(stationID, new WeatherData(applyPatch(base.getData(), element.getAsJsonObject()),
+          lamportTime, serverID));
+    }
+    if (readings.isEmpty()) {
+      return constructResponse("400 Bad Request", null, request);
+    }
+    acceptWeatherData(readings);
+    return generateResponse(serverID, request);
+  }
+
+  // A null field in the patch removes the field.
+  private static JsonObject applyPatch(JsonObject base, JsonObject patch) {
+    for (Map.Entry<String, JsonElement> field : patch.entrySet()) {
+      if (field.getValue().isJsonNull()) {
+        base.remove(field.getKey());
+      } else {
+        base.add(field.getKey(), field.getValue());
+      }
+    }
+    return base;
+  }
+
+  private boolean collectReading(JsonElement element, long lamportTime, String serverID,
+      Map<String, WeatherData> readings) {
+    if (!element.isJsonObject()) {
+      return false;
+    }
+    JsonObject weatherDataJSON = element.getAsJsonObject();
+    String stationID = extractID(weatherDataJSON);
+    if (!isValidStation(stationID)) {
+      return false;
+    }
+    readings.put(stationID, new WeatherData(weatherDataJSON, lamportTime, serverID));
+    return true;
+  }
+
+  private String generateResponse(String serverID, HttpRequest request) {
     long currentTimestamp = System.currentTimeMillis();
-    Long lastTimestamp = timeMap.get(serverID);
-    timeMap.put(serverID, currentTimestamp);
+    Long lastTimestamp = timeMap.put(serverID, currentTimestamp);
+    LivenessStore store = livenessStore;
+    if (store != null) {
+      store.recordHeartbeat(serverID, currentTimestamp);
+    }
+    scheduleExpiry(serverID, currentTimestamp);
 
     if (isNewOrDelayedRequest(lastTimestamp, currentTimestamp)) {
-      return constructResponse("201 HTTP_CREATED", null);
+      return constructResponse("201 HTTP_CREATED", null, request);
     } else {
-      return constructResponse("200 OK", null);
+      return constructResponse("200 OK", null, request);
     }
   }
 
@@ -341,18 +1210,81 @@ public class AggregationServer {
   }
 
   private boolean isNewOrDelayedRequest(Long lastTimestamp, long currentTimestamp) {
-    return lastTimestamp == null || (currentTimestamp - lastTimestamp) > 20000;
+    return lastTimestamp == null || (currentTimestamp - lastTimestamp) > STALE_AFTER_MILLIS;
   }
 
-  public boolean addWeatherData(JsonObject weatherDataJSON, int lamportTime, String serverID) {
+  public boolean addWeatherData(JsonObject weatherDataJSON, long lamportTime, String serverID) {
     String id = extractID(weatherDataJSON);
 
     if (!isValidStation(id)) {
       return false;
     }
-    weatherDataMap.computeIfAbsent(id, k -> new PriorityQueue<>())
-        .add(new WeatherData(weatherDataJSON, lamportTime, serverID));
-    return true;
+    try {
+      acceptWeatherData(Map.of(id, new WeatherData(weatherDataJSON, lamportTime, serverID)));
+      return true;
+    } catch (IOException e) {
+      AsyncLogger.error("Write-ahead log error", e);
+      return false;
+    }
+  }
+
+  // Logs the readings as one record, then stores them. Returns once the record is on
+  // disk, so a reading is never acknowledged before it is durable, and a crash keeps
+  // either all readings of a batch or none.
+  private void acceptWeatherData(Map<String, WeatherData> readings) throws IOException {
+    checkpointLock.readLock().lock();
+    try {
+      WriteAheadLog wal = writeAheadLog;
+      if (wal != null) {
+        wal.append(toLogRecord(readings)).get();
+      }
+      readings.forEach(this::storeWeatherData);
+    } catch (ExecutionException e) {
+      throw new IOException("Append failed: " + e.getCause().getMessage(), e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the append.", e);
+    } finally {
+      checkpointLock.readLock().unlock();
+    }
+  }
+
+  // A single reading is logged as an object, a batch as an array of them.
+  private String toLogRecord(Map<String, WeatherData> readings) throws IOException {
+    StringWriter record = new StringWriter();
+    JsonWriter writer = new JsonWriter(record);
+    if (readings.size() == 1) {
+      Map.Entry<String, WeatherData> reading = readings.entrySet().iterator().next();
+      writeLogEntry(writer, reading.getKey(), reading.getValue());
+    } else {
+      writer.beginArray();
+      for (Map.Entry<String, WeatherData> reading : readings.entrySet()) {
+        writeLogEntry(writer, reading.getKey(), reading.getValue());
+      }
+      writer.endArray();
+    }
+    return record.toString();
+  }
+
+  private void writeLogEntry(JsonWriter writer, String stationID, WeatherData weatherData) throws IOException {
+    writer.beginObject();
+    writer.name("stationID").value(stationID);
+    writer.name("serverID").value(weatherData.getserverID());
+    writer.name("time").value(weatherData.getTime());
+    writer.name("receivedAt").value(weatherData.getReceivedAt());
+    writer.name("data").jsonValue(weatherData.getJson());
+    writer.endObject();
+  }
+
+  private void storeWeatherData(String stationID, WeatherData weatherData) {
+    weatherDataMap.compute(stationID, (key, history) -> {
+      StationHistory target = history != null ? history : new StationHistory(config.getRetentionPolicy());
+      target.add(weatherData);
+      responseCache.remove(key);
+      addContribution(weatherData.getserverID(), key);
+      return target;
+    });
+    updateSignals.signal(stationID);
   }
 
   public NetworkHandler getNetworkHandler() {
@@ -365,12 +1297,19 @@ public class AggregationServer {
 
   public void terminate() {
     markShutdown();
+    updateSignals.close();
 
     haltThread(acceptThread);
+    stopScheduledTask(workerPool, 5);
     stopScheduledTask(fileSaveScheduler, 5);
     stopScheduledTask(cleanupScheduler, 60);
+    flushLiveness();
+    if (writeAheadLog != null) {
+      writeAheadLog.close();
+    }
 
-    System.out.println("Server termination initiated...");
+    AsyncLogger.info("Server terminated");
+    AsyncLogger.flush();
   }
 
   private void markShutdown() {
@@ -406,12 +1345,37 @@ public class AggregationServer {
 
   public static void main(String[] args) {
     int port;
-    if (args.length == 0) {
+    if (args.length == 0 || args[0].startsWith("--")) {
       port = DEFAUL_PORT;
     } else {
       port = Integer.parseInt(args[0]);
     }
-    AggregationServer server = new AggregationServer(false);
+    ServerConfig config = ServerConfig.fromArgs(args);
+    AsyncLogger.setLevel(config.getLogLevel());
+    AggregationServer server = new AggregationServer(false, config);
     server.start(port);
   }
+
+  private static final class AcceptedConnection {
+    private final Socket socket;
+    private final long acceptedAt;
+
+    AcceptedConnection(Socket socket, long acceptedAt) {
+      this.socket = socket;
+      this.acceptedAt = acceptedAt;
+    }
+  }
+
+  private static final class CachedBody {
+    private final long time;
+    private final String encoded;
+    // Where the JSON starts in encoded, past the headers.
+    private final int bodyOffset;
+
+    CachedBody(long time, String encoded, int bodyLength) {
+      this.time = time;
+      this.encoded = encoded;
+      this.bodyOffset = encoded.length() - bodyLength;
+    }
+  }
 }
@@ -1,6 +1,15 @@
 import com.google.gson.JsonObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -77,12 +86,289 @@ public class AggregationServerTest {
     assertTrue(response.contains("400 Bad Request"));
   }
 
+  @Test
+  public void testProcessRequest_concurrentPutRequests() throws InterruptedException {
+    int threadCount = 8;
+    int requestsPerThread = 50;
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < threadCount; t++) {
+      String serverID = "server" + t;
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < requestsPerThread; i++) {
+          String putRequest = "PUT /weatherData HTTP/1.1\r\nServerID: " + serverID
+              + "\r\nLamportClock: 1\r\n\r\n{id:\"" + serverID + "-" + i + "\", temp:20.5}";
+          aggregationServer.processRequest(putRequest);
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    for (int t = 0; t < threadCount; t++) {
+      for (int i = 0; i < requestsPerThread; i++) {
+        assertNotNull(aggregationServer.getWeatherData("server" + t + "-" + i));
+      }
+    }
+    // Every request performs a receive and a send on the clock.
+    assertTrue(aggregationServer.getLamportClockTime() >= threadCount * requestsPerThread * 2);
+  }
+
+  @Test
+  public void testLoadDataFromFile_snapshot(@TempDir Path dataDir) throws Exception {
+    Files.write(dataDir.resolve("data.json"), ("{\"station1\":[{\"time\":1,\"data\":{\"id\":\"station1\"},"
+        + "\"serverID\":\"server1\",\"receivedAt\":0},{\"time\":4,\"data\":{\"id\":\"station1\",\"temp\":3},"
+        + "\"serverID\":\"server1\",\"receivedAt\":0}],\"station2\":[]}").getBytes(StandardCharsets.UTF_8));
+    // A time map in the wrong shape is ignored instead of failing the start.
+    Files.write(dataDir.resolve("timeData.json"), "{\"server1\":[]}".getBytes(StandardCharsets.UTF_8));
+
+    AggregationServer restored = new AggregationServer(true, new ServerConfig().setDataDirectory(dataDir.toString()));
+    restored.loadDataFromFile();
+
+    assertEquals(3, restored.getWeatherData("station1").get("temp").getAsInt());
+    assertNull(restored.getWeatherData("station2"));
+    assertTrue(restored.getLamportClockTime() > 4);
+  }
+
+  @Test
+  public void testLoadDataFromFile_restoresLivenessAcrossDowntime(@TempDir Path dataDir) throws Exception {
+    long now = System.currentTimeMillis();
+    // The previous run stopped a minute ago: server1 was seen 5 s before that, server2 was already stale.
+    Files.write(dataDir.resolve("liveness.log"), ("+ server1 " + (now - 65000) + "\n+ server2 " + (now - 90000)
+        + "\n@ " + (now - 60000) + "\n").getBytes(StandardCharsets.UTF_8));
+
+    AggregationServer restored = new AggregationServer(true, new ServerConfig().setDataDirectory(dataDir.toString()));
+    restored.loadDataFromFile();
+
+    String put = "PUT /weatherData HTTP/1.1\r\nServerID: %s\r\nLamportClock: 1\r\n\r\n{id:\"station1\"}";
+    assertTrue(restored.processRequest(String.format(put, "server1")).contains("200 OK"));
+    assertTrue(restored.processRequest(String.format(put, "server2")).contains("201 HTTP_CREATED"));
+  }
+
+  @Test
+  public void testExpireStaleServers_onlyDropsTheStaleServersReadings() throws InterruptedException {
+    String put = "PUT /weatherData HTTP/1.1\r\nServerID: %s\r\nLamportClock: 1\r\n\r\n{id:\"%s\"}";
+    long firstPut = System.currentTimeMillis();
+    aggregationServer.processRequest(String.format(put, "server1", "station1"));
+    aggregationServer.processRequest(String.format(put, "server1", "station2"));
+    Thread.sleep(1100);
+    aggregationServer.processRequest(String.format(put, "server2", "station2"));
+
+    // Past server1's deadline, before server2's.
+    aggregationServer.expireStaleServers(firstPut + 21000);
+
+    assertNull(aggregationServer.getWeatherData("station1"));
+    assertNotNull(aggregationServer.getWeatherData("station2"));
+    assertTrue(aggregationServer.processRequest(String.format(put, "server1", "station1")).contains("201"));
+    assertTrue(aggregationServer.processRequest(String.format(put, "server2", "station2")).contains("200 OK"));
+  }
+
+  @Test
+  public void testProcessRequest_getAfterPutReturnsNewReading() {
+    String put = "PUT /weatherData HTTP/1.1\r\nServerID: server1\r\nLamportClock: 1\r\n\r\n{id:\"station1\",air_temp:\"%s\"}";
+    String get = "GET /weatherData HTTP/1.1\r\nStationID: station1\r\nLamportClock: 1\r\n\r\n";
+    aggregationServer.processRequest(String.format(put, "13.3"));
+    assertTrue(aggregationServer.processRequest(get).contains("13.3"));
+    assertTrue(aggregationServer.processRequest(get).contains("13.3"));
+
+    aggregationServer.processRequest(String.format(put, "14.1"));
+
+    String response = aggregationServer.processRequest(get);
+    assertTrue(response.contains("14.1"));
+    assertTrue(response.contains("Content-Length: " + response.substring(response.indexOf("\r\n\r\n") + 4).length()));
+  }
+
+  @Test
+  public void testProcessRequest_getAfterExpiryReturnsNoContent() {
+    String put = "PUT /weatherData HTTP/1.1\r\nServerID: server1\r\nLamportClock: 1\r\n\r\n{id:\"station1\"}";
+    String get = "GET /weatherData HTTP/1.1\r\nStationID: station1\r\nLamportClock: 1\r\n\r\n";
+    aggregationServer.processRequest(put);
+    assertTrue(aggregationServer.processRequest(get).contains("200 OK"));
+
+    aggregationServer.expireStaleServers(System.currentTimeMillis() + 21000);
+
+    assertTrue(aggregationServer.processRequest(get).contains("204 No Content"));
+  }
+
+  @Test
+  public void testProcessRequest_bulkGetReturnsListedStations() {
+    String put = "PUT /weatherData HTTP/1.1\r\nServerID: server1\r\nLamportClock: 1\r\n\r\n{id:\"%s\"}";
+    for (String stationID : new String[] {"station1", "station2", "station3"}) {
+      aggregationServer.processRequest(String.format(put, stationID));
+    }
+
+    String response = aggregationServer.processRequest(
+        "GET /weather.json?ids=station3,unknown,station1 HTTP/1.1\r\nLamportClock: 1\r\n\r\n");
+
+    assertTrue(response.contains("200 OK"));
+    assertTrue(response.endsWith("[{\"id\":\"station3\"},{\"id\":\"station1\"}]"));
+  }
+
+  @Test
+  public void testProcessRequest_bulkGetAllStations() {
+    String put = "PUT /weatherData HTTP/1.1\r\nServerID: server1\r\nLamportClock: 1\r\n\r\n{id:\"%s\"}";
+    aggregationServer.processRequest(String.format(put, "station2"));
+    aggregationServer.processRequest(String.format(put, "station1"));
+
+    String response = aggregationServer.processRequest("GET /weather.json?all HTTP/1.1\r\nLamportClock: 1\r\n\r\n");
+
+    assertTrue(response.endsWith("[{\"id\":\"station1\"},{\"id\":\"station2\"}]"));
+    assertTrue(aggregationServer.processRequest("GET /weather.json?ids=%zz HTTP/1.1\r\n\r\n").contains("400"));
+  }
+
+  @Test
+  public void testProcessRequest_batchedPutStoresEveryStation() {
+    String put = "PUT /weatherData HTTP/1.1\r\nServerID: server1\r\nLamportClock: 1\r\n\r\n"
+        + "[{id:\"station1\",temp:1},{id:\"station2\",temp:2}]";
+
+    assertTrue(aggregationServer.processRequest(put).contains("201 HTTP_CREATED"));
+    assertEquals(1, aggregationServer.getWeatherData("station1").get("temp").getAsInt());
+    assertEquals(2, aggregationServer.getWeatherData("station2").get("temp").getAsInt());
+  }
+
+  @Test
+  public void testProcessRequest_batchedPutWithInvalidEntryStoresNothing() {
+    String put = "PUT /weatherData HTTP/1.1\r\nServerID: server1\r\nLamportClock: 1\r\n\r\n%s";
+
+    assertTrue(aggregationServer.processRequest(String.format(put, "[{id:\"station1\"},{temp:2}]")).contains("400"));
+    assertTrue(aggregationServer.processRequest(String.format(put, "[]")).contains("400"));
+    assertNull(aggregationServer.getWeatherData("station1"));
+  }
+
+  @Test
+  public void testProcessRequest_heartbeatNeedsAKnownServer() {
+    String heartbeat = "PUT /weatherData HTTP/1.1\r\nServerID: server1\r\nUpdateType: heartbeat\r\nLamportClock: 1\r\n\r\n";
+    assertTrue(aggregationServer.processRequest(heartbeat).contains("409 Conflict"));
+
+    aggregationServer.processRequest("PUT /weatherData HTTP/1.1\r\nServerID: server1\r\nLamportClock: 1\r\n\r\n{id:\"station1\"}");
+
+    assertTrue(aggregationServer.processRequest(heartbeat).contains("200 OK"));
+  }
+
+  @Test
+  public void testProcessRequest_patchUpdatesTheServersLastReading() {
+    aggregationServer.processRequest("PUT /weatherData HTTP/1.1\r\nServerID: server1\r\nLamportClock: 1\r\n\r\n"
+        + "{id:\"station1\",air_temp:\"13.3\",cloud:\"Sunny\",wind_dir:\"S\"}");
+    String patch = "PUT /weatherData HTTP/1.1\r\nServerID: %s\r\nUpdateType: patch\r\nLamportClock: 1\r\n\r\n%s";
+
+    String response = aggregationServer.processRequest(
+        String.format(patch, "server1", "{id:\"station1\",air_temp:\"14.1\",cloud:null}"));
+
+    assertTrue(response.contains("200 OK"));
+    JsonObject data = aggregationServer.getWeatherData("station1");
+    assertEquals("14.1", data.get("air_temp").getAsString());
+    assertEquals("S", data.get("wind_dir").getAsString());
+    assertFalse(data.has("cloud"));
+    assertTrue(aggregationServer.processRequest(String.format(patch, "server2", "{id:\"station1\",air_temp:\"1\"}"))
+        .contains("409 Conflict"));
+  }
+
+  @Test
+  public void testProcessRequest_subscribeReturnsNewerReadingsAtOnce() {
+    aggregationServer.processRequest("PUT /weatherData HTTP/1.1\r\nServerID: server1\r\nLamportClock: 1\r\n\r\n{id:\"station1\"}");
+
+    String response = aggregationServer.processRequest(
+        "GET /weather.json?subscribe=station1,station2&since=-1 HTTP/1.1\r\nLamportClock: 1\r\n\r\n");
+
+    assertTrue(response.contains("200 OK"));
+    assertTrue(response.contains("LastReadingTime: "));
+    assertTrue(response.endsWith("[{\"id\":\"station1\"}]"));
+  }
+
+  @Test
+  public void testProcessRequest_subscribeWaitsForTheNextPut() throws Exception {
+    AggregationServer server = new AggregationServer(true, new ServerConfig().setLongPollTimeoutMillis(10000));
+    String get = "GET /weather.json?subscribe=station1&since=%d HTTP/1.1\r\nLamportClock: 1\r\n\r\n";
+    CompletableFuture<String> response = CompletableFuture.supplyAsync(
+        () -> server.processRequest(String.format(get, server.getLamportClockTime())));
+    Thread.sleep(200);
+    assertFalse(response.isDone());
+
+    server.processRequest("PUT /weatherData HTTP/1.1\r\nServerID: server1\r\nLamportClock: 1\r\n\r\n{id:\"station1\"}");
+
+    assertTrue(response.get(5, TimeUnit.SECONDS).endsWith("[{\"id\":\"station1\"}]"));
+  }
+
+  @Test
+  public void testProcessRequest_subscribeTimesOutWithNoContent() {
+    AggregationServer server = new AggregationServer(true, new ServerConfig().setLongPollTimeoutMillis(100));
+
+    String response = server.processRequest(
+        "GET /weather.json?subscribe=station1 HTTP/1.1\r\nLamportClock: 1\r\n\r\n");
+
+    assertTrue(response.contains("204 No Content"));
+  }
+
+  @Test
+  public void testProcessRequest_subscriptionsBeyondTheLimitGet503() throws Exception {
+    AggregationServer server = new AggregationServer(true,
+        new ServerConfig().setLongPollTimeoutMillis(10000).setMaxSubscriptions(1));
+    String get = "GET /weather.json?subscribe=station1&since=%d HTTP/1.1\r\nLamportClock: 1\r\n\r\n";
+    CompletableFuture<String> waiting = CompletableFuture.supplyAsync(
+        () -> server.processRequest(String.format(get, server.getLamportClockTime())));
+    Thread.sleep(200);
+
+    String refused = server.processRequest(String.format(get, server.getLamportClockTime()));
+    assertTrue(refused.startsWith("HTTP/1.1 503"));
+    assertTrue(refused.contains("Retry-After: 1"));
+
+    server.processRequest("PUT /weatherData HTTP/1.1\r\nServerID: server1\r\nLamportClock: 1\r\n\r\n{id:\"station1\"}");
+    assertTrue(waiting.get(5, TimeUnit.SECONDS).contains("200 OK"));
+  }
+
+  @Test
+  public void testProcessRequest_malformedNumbersGet400() {
+    assertTrue(aggregationServer.processRequest("GET /weather.json HTTP/1.1\r\nLamportClock: abc\r\n\r\n")
+        .startsWith("HTTP/1.1 400 Bad Request"));
+    assertTrue(aggregationServer.processRequest(
+        "PUT /weatherData HTTP/1.1\r\nServerID: server1\r\nLamportClock: 1x\r\n\r\n{id:\"station1\"}")
+        .startsWith("HTTP/1.1 400 Bad Request"));
+    assertTrue(aggregationServer.processRequest(
+        "GET /weather.json?subscribe=station1&since=abc HTTP/1.1\r\nLamportClock: 1\r\n\r\n")
+        .startsWith("HTTP/1.1 400 Bad Request"));
+    assertNull(aggregationServer.getWeatherData("station1"));
+  }
+
   @Test
   public void testTerminate() {
     aggregationServer.terminate();
     assertTrue(aggregationServer.getShutdownFlag());
   }
 
+  @Test
+  public void testProcessRequest_metricsEndpoint() {
+    String putRequest = "PUT /weatherData HTTP/1.1\r\nServerID: server1\r\nLamportClock: 1\r\n\r\n{id:\"station1\", temp:20.5}";
+    aggregationServer.processRequest(putRequest);
+    aggregationServer.processRequest("GET /weatherData HTTP/1.1\r\nStationID: station1\r\n\r\n");
+
+    String response = aggregationServer.processRequest("GET /metrics HTTP/1.1\r\n\r\n");
+    assertTrue(response.startsWith("HTTP/1.1 200 OK"));
+    assertTrue(response.contains("Content-Type: text/plain"));
+    assertTrue(response.contains("weather_requests_total{method=\"PUT\",status=\"201\"} 1\n"));
+    assertTrue(response.contains("weather_requests_total{method=\"GET\",status=\"200\"} 1\n"));
+    assertTrue(response.contains("weather_stations 1\n"));
+    assertTrue(response.contains("weather_station_readings{station=\"station1\"} 1\n"));
+    // The metrics request is counted once it is answered.
+    assertEquals(2, aggregationServer.getMetrics().getRequestCount("GET", "200"));
+  }
+
+  @Test
+  public void testProcessRequest_rateLimitPerServerID() {
+    AggregationServer limited = new AggregationServer(true, new ServerConfig().setRateLimit(2));
+    String putRequest = "PUT /weatherData HTTP/1.1\r\nServerID: server1\r\nLamportClock: 1\r\n\r\n{id:\"station1\", temp:20.5}";
+    assertTrue(limited.processRequest(putRequest).contains("201 HTTP_CREATED"));
+    assertTrue(limited.processRequest(putRequest).contains("200 OK"));
+
+    String response = limited.processRequest(putRequest);
+    assertTrue(response.startsWith("HTTP/1.1 429 Too Many Requests"));
+    assertTrue(response.contains("Retry-After: 1\r\n"));
+    assertEquals(1, limited.getMetrics().getRejectionCount("rate_limit"));
+    String otherServer = putRequest.replace("server1", "server2");
+    assertTrue(limited.processRequest(otherServer).contains("201 HTTP_CREATED"));
+  }
+
   @Test
   public void testExtractID_validData() {
     JsonObject jsonObject = new JsonObject();
@@ -0,0 +1,234 @@
+import java.io.PrintStream;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+// Leveled logger that hands messages to a writer thread through a bounded ring
+// buffer, so a logging thread never waits on the PrintStream lock or the terminal.
+// The writer formats the lines and prints them a batch at a time. When the buffer is
+// full the message is dropped and counted rather than blocking the caller.
+//
+// Lines look like: 2024-09-20T10:15:30.123Z INFO [worker-3] message
+// Per-request messages are DEBUG and off by default; build them only after checking
+// isDebugEnabled() so the disabled path does not concatenate strings.
+public final class AsyncLogger {
+  public enum Level {
+    DEBUG, INFO, WARN, ERROR, OFF
+  }
+
+  private static final int DEFAULT_CAPACITY = 8192;
+  private static final int MAX_BATCH = 256;
+  private static final AsyncLogger INSTANCE = new AsyncLogger(DEFAULT_CAPACITY, () -> System.out, () -> System.err,
+      Level.valueOf(System.getProperty("log.level", "INFO").toUpperCase()));
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> INSTANCE.flush(1000), "log-flush"));
+  }
+
+  private static final class Entry {
+    private final Level level;
+    private final long time;
+    private final String thread;
+    private final String message;
+    private final Throwable error;
+
+    Entry(Level level, String message, Throwable error) {
+      this.level = level;
+      this.time = System.currentTimeMillis();
+      this.thread = Thread.currentThread().getName();
+      this.message = message;
+      this.error = error;
+    }
+  }
+
+  // Bounded multi-producer queue (Vyukov): a slot's sequence tells whether it is free
+  // for the producer at that position or holds an entry for the writer.
+  private final Entry[] entries;
+  private final AtomicLongArray sequences;
+  private final int mask;
+  private final AtomicLong tail = new AtomicLong();
+  // Only touched by the writer thread.
+  private long head;
+  // Entries the writer has printed, for flush().
+  private volatile long written;
+  private final LongAdder dropped = new LongAdder();
+  private volatile boolean sleeping;
+  private volatile Level level;
+  private final Supplier<PrintStream> out;
+  private final Supplier<PrintStream> err;
+  private final Thread writer;
+
+  // The streams are looked up for every batch, so System.setOut also redirects the
+  // default logger. Capacity is rounded up to a power of two.
+  AsyncLogger(int capacity, Supplier<PrintStream> out, Supplier<PrintStream> err, Level level) {
+    int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+    this.entries = new Entry[size];
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+    this.mask = size - 1;
+    this.out = out;
+    this.err = err;
+    this.level = level;
+    this.writer = new Thread(this::drainLoop, "log-writer");
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  public static void setLevel(Level level) {
+    if (level == null) {
+      throw new IllegalArgumentException("Error 400: log level is null.");
+    }
+    INSTANCE.level = level;
+  }
+
+  public static Level getLevel() {
+    return INSTANCE.level;
+  }
+
+  public static boolean isDebugEnabled() {
+    return INSTANCE.isEnabled(Level.DEBUG);
+  }
+
+  public static void debug(String message) {
+    INSTANCE.log(Level.DEBUG, message, null);
+  }
+
+  public static void info(String message) {
+    INSTANCE.log(Level.INFO, message, null);
+  }
+
+  public static void warn(String message) {
+    INSTANCE.log(Level.WARN, message, null);
+  }
+
+  public static void error(String message, Throwable error) {
+    INSTANCE.log(Level.ERROR, message, error);
+  }
+
+  // Waits until everything logged so far is printed, at most a second.
+  public static void flush() {
+    INSTANCE.flush(1000);
+  }
+
+  boolean isEnabled(Level messageLevel) {
+    return messageLevel.compareTo(level) >= 0;
+  }
+
+  void log(Level messageLevel, String message, Throwable error) {
+    if (!isEnabled(messageLevel)) {
+      return;
+    }
+    if (!offer(new Entry(messageLevel, message, error))) {
+      dropped.increment();
+      return;
+    }
+    if (sleeping) {
+      LockSupport.unpark(writer);
+    }
+  }
+
+  long getDropped() {
+    return dropped.sum();
+  }
+
+  // Waits until everything logged so far is printed, at most timeoutMillis.
+  void flush(long timeoutMillis) {
+    long target = tail.get();
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    while (written < target && System.nanoTime() < deadline) {
+      LockSupport.unpark(writer);
+      LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+  }
+
+  private boolean offer(Entry entry) {
+    long position = tail.get();
+    while (true) {
+      int index = (int) (position & mask);
+      long difference = sequences.get(index) - position;
+      if (difference == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          entries[index] = entry;
+          // Publishes the entry to the writer.
+          sequences.set(index, position + 1);
+          return true;
+        }
+        position = tail.get();
+      } else if (difference < 0) {
+        // The writer has not freed this slot yet, the buffer is full.
+        return false;
+      } else {
+        position = tail.get();
+      }
+    }
+  }
+
+  private Entry poll() {
+    int index = (int) (head & mask);
+    if (sequences.get(index) != head + 1) {
+      return null;
+    }
+    Entry entry = entries[index];
+    entries[index] = null;
+    sequences.set(index, head + entries.length);
+    head++;
+    return entry;
+  }
+
+  private void drainLoop() {
+    StringBuilder outBatch = new StringBuilder();
+    StringBuilder errBatch = new StringBuilder();
+    long reportedDrops = 0;
+    while (true) {
+      int count = 0;
+      Entry entry;
+      while (count < MAX_BATCH && (entry = poll()) != null) {
+        format(entry, entry.level.compareTo(Level.WARN) >= 0 ? errBatch : outBatch);
+        count++;
+      }
+      long drops = dropped.sum();
+      if (drops != reportedDrops) {
+        errBatch.append(Instant.now()).append(" WARN [log-writer] ").append(drops - reportedDrops)
+            .append(" log messages dropped, the buffer was full\n");
+        reportedDrops = drops;
+      }
+      write(out.get(), outBatch);
+      write(err.get(), errBatch);
+      written = head;
+      if (count == 0) {
+        sleeping = true;
+        // Re-checked after announcing the sleep, an entry offered before the flag was
+        // visible would not unpark the writer.
+        if (sequences.get((int) (head & mask)) != head + 1) {
+          LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+        }
+        sleeping = false;
+      }
+    }
+  }
+
+  private static void format(Entry entry, StringBuilder batch) {
+    batch.append(Instant.ofEpochMilli(entry.time)).append(' ').append(entry.level).append(" [").append(entry.thread)
+        .append("] ").append(entry.message).append('\n');
+    for (Throwable error = entry.error; error != null; error = error.getCause()) {
+      batch.append(error == entry.error ? "" : "Caused by: ").append(error).append('\n');
+      for (StackTraceElement frame : error.getStackTrace()) {
+        batch.append("\tat ").append(frame).append('\n');
+      }
+    }
+  }
+
+  private static void write(PrintStream stream, StringBuilder batch) {
+    if (batch.length() > 0) {
+      stream.print(batch);
+      stream.flush();
+      batch.setLength(0);
+    }
+  }
+}
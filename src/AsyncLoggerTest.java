@@ -0,0 +1,85 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AsyncLoggerTest {
+
+  @Test
+  public void testLog_filtersByLevelAndSplitsStreams() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    PrintStream outStream = new PrintStream(out, true, StandardCharsets.UTF_8);
+    PrintStream errStream = new PrintStream(err, true, StandardCharsets.UTF_8);
+    AsyncLogger logger = new AsyncLogger(16, () -> outStream, () -> errStream, AsyncLogger.Level.INFO);
+
+    logger.log(AsyncLogger.Level.DEBUG, "per request", null);
+    logger.log(AsyncLogger.Level.INFO, "started", null);
+    logger.log(AsyncLogger.Level.ERROR, "failed", new IllegalStateException("broken"));
+    logger.flush(5000);
+
+    String printed = out.toString(StandardCharsets.UTF_8);
+    String errors = err.toString(StandardCharsets.UTF_8);
+    assertFalse(logger.isEnabled(AsyncLogger.Level.DEBUG));
+    assertFalse(printed.contains("per request"));
+    assertTrue(printed.matches("\\S+ INFO \\[\\S+\\] started\n"));
+    assertTrue(errors.contains(" ERROR ["));
+    assertTrue(errors.contains("java.lang.IllegalStateException: broken\n\tat "));
+  }
+
+  @Test
+  public void testLog_concurrentWritersLoseNothing() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PrintStream stream = new PrintStream(out, true, StandardCharsets.UTF_8);
+    AsyncLogger logger = new AsyncLogger(1 << 16, () -> stream, () -> stream, AsyncLogger.Level.DEBUG);
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      int thread = t;
+      threads.add(new Thread(() -> {
+        for (int i = 0; i < 5000; i++) {
+          logger.log(AsyncLogger.Level.DEBUG, "t" + thread + " m" + i, null);
+        }
+      }));
+    }
+    threads.forEach(Thread::start);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    logger.flush(5000);
+
+    assertEquals(0, logger.getDropped());
+    assertEquals(20000, out.toString(StandardCharsets.UTF_8).split("\n").length);
+  }
+
+  @Test
+  public void testLog_dropsWhenFullInsteadOfBlocking() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    // Stalls the writer on its first batch, as a slow terminal would.
+    PrintStream stalled = new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    AsyncLogger logger = new AsyncLogger(8, () -> stalled, () -> stalled, AsyncLogger.Level.INFO);
+
+    for (int i = 0; i < 100; i++) {
+      logger.log(AsyncLogger.Level.INFO, "message " + i, null);
+    }
+
+    // 8 buffered, and at most one batch of 8 already taken by the writer.
+    assertTrue(logger.getDropped() >= 100 - 16);
+    release.countDown();
+  }
+}
@@ -0,0 +1,229 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.*;
+
+// Binary snapshot of the station histories. Station, server and field names are stored
+// once in a string table and referenced by index. A reading is stored as its numeric
+// fields in binary next to its serialised JSON, which is what WeatherData keeps, so
+// neither saving nor loading builds or parses a JSON tree.
+//
+// Layout: magic, version, stations, -1, string table, offset of the string table.
+// Station: name index, reading count, readings. Reading: length in bytes, time, server
+// index, receivedAt, station index (-1 without one), numeric field count, the numeric
+// fields as (name index, double), then the JSON as UTF-8.
+//
+// Versions 1 and 2 stored the fields one by one as (name index, tag, value) after
+// receivedAt, with the time as an int in version 1. They are still read.
+public final class BinarySnapshot {
+  private static final int MAGIC = 0x57445342; // "WDSB"
+  private static final short VERSION = 3;
+  private static final int HEADER_BYTES = 6;
+
+  // Value tags of versions 1 and 2.
+  private static final byte NULL = 0;
+  private static final byte STRING = 1;
+  // Strings whose text is exactly Long.toString / Double.toString of their value.
+  private static final byte STRING_LONG = 2;
+  private static final byte STRING_DOUBLE = 3;
+  private static final byte NUMBER_LONG = 4;
+  private static final byte NUMBER_DOUBLE = 5;
+  private static final byte BOOLEAN = 6;
+  // Anything else (nested values, numbers without an exact binary form) as JSON text.
+  private static final byte JSON = 7;
+
+  private BinarySnapshot() {
+  }
+
+  public static void write(FileChannel channel, Map<String, StationHistory> histories) throws IOException {
+    Map<String, Integer> indexes = new HashMap<>();
+    List<String> table = new ArrayList<>();
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+    ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+    DataOutputStream recordOut = new DataOutputStream(record);
+
+    out.writeInt(MAGIC);
+    out.writeShort(VERSION);
+    long position = HEADER_BYTES;
+    for (Map.Entry<String, StationHistory> entry : histories.entrySet()) {
+      List<WeatherData> readings = entry.getValue().snapshot();
+      out.writeInt(intern(entry.getKey(), indexes, table));
+      out.writeInt(readings.size());
+      position += 8;
+      for (WeatherData reading : readings) {
+        record.reset();
+        writeReading(recordOut, reading, indexes, table);
+        out.writeInt(record.size());
+        record.writeTo(out);
+        position += 4 + record.size();
+      }
+    }
+    out.writeInt(-1);
+    position += 4;
+
+    out.writeInt(table.size());
+    for (String value : table) {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+    out.writeLong(position);
+    out.flush();
+  }
+
+  private static void writeReading(DataOutputStream out, WeatherData reading, Map<String, Integer> indexes,
+      List<String> table) throws IOException {
+    out.writeLong(reading.getTime());
+    out.writeInt(intern(reading.getserverID(), indexes, table));
+    out.writeLong(reading.getReceivedAt());
+    String stationID = reading.getStationID();
+    out.writeInt(stationID == null ? -1 : intern(stationID, indexes, table));
+    String[] names = reading.numericNames();
+    double[] values = reading.numericValues();
+    out.writeInt(names.length);
+    for (int i = 0; i < names.length; i++) {
+      out.writeInt(intern(names[i], indexes, table));
+      out.writeDouble(values[i]);
+    }
+    byte[] json = reading.getJson().getBytes(StandardCharsets.UTF_8);
+    out.writeInt(json.length);
+    out.write(json);
+  }
+
+  private static int intern(String value, Map<String, Integer> indexes, List<String> table) {
+    return indexes.computeIfAbsent(value, key -> {
+      table.add(key);
+      return table.size() - 1;
+    });
+  }
+
+  public static Map<String, StationHistory> read(Path file, RetentionPolicy retentionPolicy) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Snapshot too large to map: " + size + " bytes.");
+      }
+      MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      if (size < HEADER_BYTES + 16 || buffer.getInt(0) != MAGIC) {
+        throw new IOException("Not a binary snapshot: " + file);
+      }
+      short version = buffer.getShort(4);
+      if (version < 1 || version > VERSION) {
+        throw new IOException("Unsupported snapshot version " + version + ": " + file);
+      }
+
+      try {
+        buffer.position((int) buffer.getLong((int) size - 8));
+        String[] table = readStringTable(buffer);
+
+        buffer.position(HEADER_BYTES);
+        Map<String, StationHistory> histories = new ConcurrentHashMap<>();
+        int stationIndex;
+        while ((stationIndex = buffer.getInt()) != -1) {
+          int count = buffer.getInt();
+          StationHistory history = new StationHistory(retentionPolicy);
+          for (int i = 0; i < count; i++) {
+            int length = buffer.getInt();
+            int next = buffer.position() + length;
+            history.add(readReading(buffer, table, version));
+            buffer.position(next);
+          }
+          histories.put(table[stationIndex], history);
+        }
+        return histories;
+      } catch (BufferUnderflowException | IndexOutOfBoundsException | NegativeArraySizeException
+          | IllegalArgumentException | JsonParseException e) {
+        throw new IOException("Corrupt snapshot " + file + ": " + e, e);
+      }
+    }
+  }
+
+  // Rejects counts a corrupt file could not hold before allocating for them.
+  private static int checkLength(MappedByteBuffer buffer, int count, int minBytesEach) {
+    if (count < 0 || (long) count * minBytesEach > buffer.remaining()) {
+      throw new IllegalArgumentException("Invalid length " + count + " at " + buffer.position());
+    }
+    return count;
+  }
+
+  private static String[] readStringTable(MappedByteBuffer buffer) {
+    String[] table = new String[checkLength(buffer, buffer.getInt(), 4)];
+    for (int i = 0; i < table.length; i++) {
+      table[i] = readString(buffer);
+    }
+    return table;
+  }
+
+  private static WeatherData readReading(MappedByteBuffer buffer, String[] table, short version) {
+    long time = version == 1 ? buffer.getInt() : buffer.getLong();
+    String serverID = table[buffer.getInt()];
+    long receivedAt = buffer.getLong();
+    if (version < 3) {
+      return readFields(buffer, table, time, serverID, receivedAt);
+    }
+    int stationIndex = buffer.getInt();
+    String[] names = new String[checkLength(buffer, buffer.getInt(), 12)];
+    double[] values = new double[names.length];
+    for (int i = 0; i < names.length; i++) {
+      names[i] = table[buffer.getInt()];
+      values[i] = buffer.getDouble();
+    }
+    return new WeatherData(readString(buffer), time, serverID, receivedAt,
+        stationIndex == -1 ? null : table[stationIndex], names, values);
+  }
+
+  private static WeatherData readFields(MappedByteBuffer buffer, String[] table, long time, String serverID,
+      long receivedAt) {
+    int fields = buffer.getInt();
+    JsonObject data = new JsonObject();
+    for (int i = 0; i < fields; i++) {
+      String name = table[buffer.getInt()];
+      data.add(name, readValue(buffer));
+    }
+    return new WeatherData(data, time, serverID, receivedAt);
+  }
+
+  private static JsonElement readValue(MappedByteBuffer buffer) {
+    byte tag = buffer.get();
+    switch (tag) {
+      case NULL:
+        return JsonNull.INSTANCE;
+      case STRING:
+        return new JsonPrimitive(readString(buffer));
+      case STRING_LONG:
+        return new JsonPrimitive(Long.toString(buffer.getLong()));
+      case STRING_DOUBLE:
+        return new JsonPrimitive(Double.toString(buffer.getDouble()));
+      case NUMBER_LONG:
+        return new JsonPrimitive(buffer.getLong());
+      case NUMBER_DOUBLE:
+        return new JsonPrimitive(buffer.getDouble());
+      case BOOLEAN:
+        return new JsonPrimitive(buffer.get() != 0);
+      case JSON:
+        return JsonParser.parseString(readString(buffer));
+      default:
+        throw new IllegalArgumentException("Unknown value tag " + tag);
+    }
+  }
+
+  private static String readString(MappedByteBuffer buffer) {
+    byte[] bytes = new byte[checkLength(buffer, buffer.getInt(), 1)];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
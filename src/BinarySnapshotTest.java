@@ -0,0 +1,173 @@
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BinarySnapshotTest {
+
+  @TempDir
+  Path dataDir;
+
+  private Path write(Map<String, StationHistory> histories) throws IOException {
+    Path file = dataDir.resolve("data.bin");
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      BinarySnapshot.write(channel, histories);
+    }
+    return file;
+  }
+
+  @Test
+  public void testRoundTrip_keepsValuesAndTypes() throws IOException {
+    JsonObject data = new JsonObject();
+    data.addProperty("id", "IDS60901");
+    data.addProperty("air_temp", "13.3");
+    data.addProperty("local_date_time_full", "20230715160000");
+    data.addProperty("padded", "007");
+    data.addProperty("trailing_zero", "13.30");
+    data.addProperty("pressure", 1016.5);
+    data.addProperty("count", 42);
+    data.addProperty("calm", true);
+    data.add("missing", null);
+    JsonArray nested = new JsonArray();
+    nested.add("a");
+    data.add("nested", nested);
+
+    Map<String, StationHistory> histories = new ConcurrentHashMap<>();
+    StationHistory history = new StationHistory();
+    history.add(new WeatherData(data, 7, "server1", 1234L));
+    history.add(new WeatherData(data.deepCopy(), 9, "server2", 5678L));
+    histories.put("IDS60901", history);
+
+    Map<String, StationHistory> loaded = BinarySnapshot.read(write(histories), RetentionPolicy.UNBOUNDED);
+
+    List<WeatherData> readings = loaded.get("IDS60901").snapshot();
+    assertEquals(2, readings.size());
+    assertEquals(7, readings.get(0).getTime());
+    assertEquals("server1", readings.get(0).getserverID());
+    assertEquals(1234L, readings.get(0).getReceivedAt());
+    assertEquals(data, readings.get(0).getData());
+    assertEquals(data.toString(), readings.get(1).getData().toString());
+  }
+
+  @Test
+  public void testRoundTrip_keepsTypedFields() throws IOException {
+    JsonObject data = new JsonObject();
+    data.addProperty("id", "IDS60901");
+    data.addProperty("air_temp", "13.3");
+    data.addProperty("press", 1023.9);
+    data.addProperty("wind_dir", "S");
+    WeatherData reading = new WeatherData(data, 7, "server1", 1234L);
+    Map<String, StationHistory> histories = new ConcurrentHashMap<>();
+    histories.put("IDS60901", StationHistory.of(List.of(reading), RetentionPolicy.UNBOUNDED));
+
+    WeatherData loaded = BinarySnapshot.read(write(histories), RetentionPolicy.UNBOUNDED)
+        .get("IDS60901").latest();
+
+    assertEquals(reading.getJson(), loaded.getJson());
+    assertSame(reading.getStationID(), loaded.getStationID());
+    assertSame(reading.numericNames(), loaded.numericNames());
+    assertEquals(13.3, loaded.getNumber("air_temp"));
+    assertEquals(1023.9, loaded.getNumber("press"));
+  }
+
+  @Test
+  public void testRead_version2File() throws IOException {
+    // Version 2 stores each field as (name index, tag, value).
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(0x57445342);
+    out.writeShort(2);
+    out.writeInt(0);
+    out.writeInt(1);
+    ByteArrayOutputStream record = new ByteArrayOutputStream();
+    DataOutputStream recordOut = new DataOutputStream(record);
+    recordOut.writeLong(7);
+    recordOut.writeInt(1);
+    recordOut.writeLong(1234L);
+    recordOut.writeInt(2);
+    recordOut.writeInt(2);
+    recordOut.writeByte(1);
+    recordOut.writeInt(8);
+    recordOut.write("station1".getBytes());
+    recordOut.writeInt(3);
+    recordOut.writeByte(3);
+    recordOut.writeDouble(13.3);
+    out.writeInt(record.size());
+    record.writeTo(out);
+    out.writeInt(-1);
+    long tableOffset = out.size();
+    out.writeInt(4);
+    for (String value : List.of("station1", "server1", "id", "air_temp")) {
+      out.writeInt(value.length());
+      out.write(value.getBytes());
+    }
+    out.writeLong(tableOffset);
+    Path file = dataDir.resolve("data.bin");
+    Files.write(file, bytes.toByteArray());
+
+    WeatherData loaded = BinarySnapshot.read(file, RetentionPolicy.UNBOUNDED).get("station1").latest();
+
+    assertEquals(7, loaded.getTime());
+    assertEquals("server1", loaded.getserverID());
+    assertEquals("{\"id\":\"station1\",\"air_temp\":\"13.3\"}", loaded.getJson());
+    assertEquals(13.3, loaded.getNumber("air_temp"));
+    assertEquals("station1", loaded.getStationID());
+  }
+
+  @Test
+  public void testRoundTrip_manyStations() throws IOException {
+    Map<String, StationHistory> histories = new ConcurrentHashMap<>();
+    for (int station = 0; station < 50; station++) {
+      StationHistory history = new StationHistory();
+      for (int time = 1; time <= 20; time++) {
+        JsonObject data = new JsonObject();
+        data.addProperty("id", "station" + station);
+        data.addProperty("air_temp", Double.toString(time / 4.0));
+        history.add(new WeatherData(data, time, "server" + (time % 3)));
+      }
+      histories.put("station" + station, history);
+    }
+
+    Map<String, StationHistory> loaded = BinarySnapshot.read(write(histories), new RetentionPolicy(5, 0, 0));
+
+    assertEquals(50, loaded.size());
+    assertEquals(5, loaded.get("station12").size());
+    assertEquals("5.0", loaded.get("station12").latest().getData().get("air_temp").getAsString());
+  }
+
+  @Test
+  public void testRead_rejectsOtherFiles() throws IOException {
+    Path file = dataDir.resolve("data.bin");
+    Files.write(file, "{\"station1\":[]}".getBytes());
+
+    assertThrows(IOException.class, () -> BinarySnapshot.read(file, RetentionPolicy.UNBOUNDED));
+  }
+
+  @Test
+  public void testRead_rejectsTruncatedFile() throws IOException {
+    Map<String, StationHistory> histories = new ConcurrentHashMap<>();
+    JsonObject data = new JsonObject();
+    data.addProperty("id", "station1");
+    histories.put("station1", StationHistory.of(List.of(new WeatherData(data, 1, "server1")),
+        RetentionPolicy.UNBOUNDED));
+    Path file = write(histories);
+    byte[] bytes = Files.readAllBytes(file);
+    Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+
+    assertThrows(IOException.class, () -> BinarySnapshot.read(file, RetentionPolicy.UNBOUNDED));
+  }
+}
@@ -0,0 +1,19 @@
+import java.net.Socket;
+
+// Server transport that hands each accepted socket to the caller, which reads its
+// requests and writes the responses on a thread of its own.
+public interface BlockingServerHandler extends NetworkHandler {
+
+    Socket acceptIncomingClient();
+
+    // Returns null once the client closes the connection or stays idle past the socket timeout.
+    HttpRequest waitForRequestFromClient(Socket clientSocket);
+
+    // Waits up to timeoutMillis for the next request to start arriving. False when
+    // nothing came in time, true also when the client closed the connection.
+    boolean awaitRequest(Socket clientSocket, int timeoutMillis);
+
+    void sendResponseToClient(String response, Socket clientSocket);
+
+    void closeClientConnection(Socket clientSocket);
+}
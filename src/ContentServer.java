@@ -1,19 +1,47 @@
 import com.google.gson.*;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ContentServer {
   private final NetworkHandler networkHandler;
-  private JsonObject weatherData;
+  // One entry per station in the feed, all sent in a single PUT.
+  private List<JsonObject> weatherData;
+  // Full body of the last push the server acknowledged, and its entries by station.
+  // A push of unchanged data is sent as a heartbeat, a partly changed one as a patch.
+  private String lastPushedBody;
+  private Map<String, JsonObject> lastPushed;
+  private String pendingBody;
+  private List<JsonObject> pendingData;
+  private volatile WatchService inputWatcher;
+  // Input file content the current weather data was parsed from.
+  private volatile String lastInputContent;
+  private final AtomicBoolean reloadPending = new AtomicBoolean();
   private final ScheduledExecutorService dataUploadScheduler;
   private final String serverID;
   private final LamportClock lamportClock;
   private static final int DEFAUL_PORT = 4567;
   private static final String DEFAULT_HOST = "localhost";
   private static final String DEFAULT_PATH = "src/input.txt";
+  // Well inside the time after which the aggregation server expires a silent content
+  // server, so a heartbeat or patch always finds its data still there.
+  static final long PUSH_INTERVAL_MILLIS = AggregationServer.STALE_AFTER_MILLIS / 2;
 
   public ContentServer(boolean isForTested) {
     this.serverID = UUID.randomUUID().toString();
@@ -31,58 +59,194 @@ public class ContentServer {
   }
 
   public void setWeatherData(JsonObject data) {
-    this.weatherData = data;
+    this.weatherData = data == null ? null : List.of(data);
+  }
+
+  public void setWeatherData(List<JsonObject> data) {
+    this.weatherData = data == null || data.isEmpty() ? null : List.copyOf(data);
   }
 
   public void uploadData(String host, int port) {
-    ScheduledExecutorService executor = Executors.newScheduledThreadPool(1);
-    executor.scheduleWithFixedDelay(new Runnable() {
+    dataUploadScheduler.scheduleWithFixedDelay(new Runnable() {
 
       @Override
       public void run() {
         processPush(host, port);
       }
-    }, 0, 30, TimeUnit.SECONDS);
+    }, 0, PUSH_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  // Re-reads the input file whenever it changes and pushes the new data at once. The
+  // periodic upload keeps running and sends heartbeats while the file is unchanged.
+  public void watchInputFile(String path, String host, int port) throws IOException {
+    Path file = Paths.get(path).toAbsolutePath();
+    WatchService watchService = file.getFileSystem().newWatchService();
+    file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_MODIFY);
+    this.inputWatcher = watchService;
+    // Read after registering, so a change made meanwhile still raises an event.
+    String content = readInput(file);
+    if (content != null) {
+      setWeatherData(JSONHandler.parseTextToJSONList(content));
+      lastInputContent = content;
+    }
+
+    Thread watcher = new Thread(() -> {
+      try {
+        while (true) {
+          WatchKey key = watchService.take();
+          boolean changed = false;
+          for (WatchEvent<?> event : key.pollEvents()) {
+            changed |= file.getFileName().equals(event.context());
+          }
+          key.reset();
+          // An editor's save can raise several events, they end up in one reload.
+          if (changed && reloadPending.compareAndSet(false, true)) {
+            dataUploadScheduler.schedule(() -> reloadInput(file, host, port), 50, TimeUnit.MILLISECONDS);
+          }
+        }
+      } catch (InterruptedException | ClosedWatchServiceException e) {
+        // Stopped by terminateResources.
+      }
+    }, "input-watcher");
+    watcher.setDaemon(true);
+    watcher.start();
   }
 
-  public void processPush(String host, int port) {
+  private void reloadInput(Path file, String host, int port) {
+    reloadPending.set(false);
+    String content = readInput(file);
+    if (content == null || content.equals(lastInputContent)) {
+      return;
+    }
     try {
-      int serverLamportClock = networkHandler.initializeClientSocket(host, port);
-      lamportClock.receive(serverLamportClock);
-      int clockValue = openConnection(host, port);
+      setWeatherData(JSONHandler.parseTextToJSONList(content));
+      lastInputContent = content;
+    } catch (IllegalArgumentException e) {
+      // Possibly a half-written file, the next change event reloads it.
+      AsyncLogger.warn("Error 400: " + e.getMessage());
+      return;
+    }
+    processPush(host, port);
+  }
+
+  private static String readInput(Path file) {
+    try {
+      return JSONHandler.readFile(file.toString());
+    } catch (IOException e) {
+      AsyncLogger.warn("Error 400: " + e.getMessage());
+      return null;
+    }
+  }
+
+  // Synchronized because scheduled pushes and retries share the kept-alive connection.
+  public synchronized void processPush(String host, int port) {
+    try {
+      // Reuses the open connection when there is one, only a new connection reads the greeting.
+      long clockValue = networkHandler.initializeClientSocket(host, port);
 
       if (clockValue == -1) {
-        System.out.println("Error 400: Bad Request No LamportClock");
+        AsyncLogger.warn("Error 400: Bad Request No LamportClock");
         return;
       }
       adjustClock(clockValue);
       String request = buildRequest(host);
       String serverResponse = transceive(host, port, request);
+      if (statusCode(serverResponse) == 409) {
+        // The server lost what the heartbeat or patch refers to, e.g. it expired us.
+        lastPushedBody = null;
+        lastPushed = null;
+        serverResponse = transceive(host, port, buildRequest(host));
+      }
+      long retryAfter = retryAfterSeconds(serverResponse);
+      if (retryAfter > 0) {
+        // Overloaded, or this server is over its rate limit. The data is sent again.
+        AsyncLogger.warn("Server busy, retrying in " + retryAfter + " seconds");
+        retryPush(host, port, retryAfter);
+        return;
+      }
       if (serverResponse != null) {
         processResponse(serverResponse);
       }
 
     } catch (Exception exc) {
-      System.out.println("Connection issue: " + exc.getMessage());
-      System.out.println("Retrying...");
-      retryPush(host, port);
+      AsyncLogger.warn("Connection issue: " + exc.getMessage() + ", retrying in 15 seconds");
+      retryPush(host, port, 15);
     }
   }
 
-  private int openConnection(String host, int port) throws Exception {
-    return networkHandler.initializeClientSocket(host, port);
-  }
-
-  public void adjustClock(int newTime) {
+  public void adjustClock(long newTime) {
     lamportClock.receive(newTime);
   }
 
+  // A single station is sent as an object, several as one array. Data the server
+  // already holds is sent as a heartbeat, or as a patch of the changed fields.
   public String buildRequest(String host) {
+    String body = toBody(weatherData);
+    pendingBody = body;
+    pendingData = weatherData;
+    if (body.equals(lastPushedBody)) {
+      return buildRequest(host, "heartbeat", "");
+    }
+    String patch = buildPatch();
+    if (patch != null && patch.length() < body.length()) {
+      return buildRequest(host, "patch", patch);
+    }
+    return buildRequest(host, null, body);
+  }
+
+  private String buildRequest(String host, String updateType, String body) {
     String headers = String.format(
-        "PUT /uploadData HTTP/1.1\r\nHost: %s\r\nServerID: %s\r\nLamportClock: %s\r\nContent-Type: application/json\r\nContent-Length: %d\r\n\r\n",
-        host, serverID, lamportClock.getTime(), weatherData.toString().length());
+        "PUT /uploadData HTTP/1.1\r\nHost: %s\r\nServerID: %s\r\nLamportClock: %s\r\nConnection: keep-alive\r\n%sContent-Type: application/json\r\nContent-Length: %d\r\n\r\n",
+        host, serverID, lamportClock.getTime(), updateType == null ? "" : "UpdateType: " + updateType + "\r\n",
+        body.getBytes(StandardCharsets.UTF_8).length);
+
+    return headers + body;
+  }
 
-    return headers + weatherData;
+  private static String toBody(List<JsonObject> entries) {
+    if (entries.size() == 1) {
+      return entries.get(0).toString();
+    }
+    JsonArray batch = new JsonArray(entries.size());
+    entries.forEach(batch::add);
+    return batch.toString();
+  }
+
+  // The id and changed fields of every changed station, a removed field as null.
+  // Null when the set of stations changed, which needs a full push.
+  private String buildPatch() {
+    if (lastPushed == null || lastPushed.size() != weatherData.size()) {
+      return null;
+    }
+    List<JsonObject> patches = new ArrayList<>();
+    for (JsonObject entry : weatherData) {
+      JsonObject previous = lastPushed.get(stationOf(entry));
+      if (previous == null) {
+        return null;
+      }
+      JsonObject patch = new JsonObject();
+      for (Map.Entry<String, JsonElement> field : entry.entrySet()) {
+        if (!field.getValue().equals(previous.get(field.getKey()))) {
+          patch.add(field.getKey(), field.getValue());
+        }
+      }
+      for (String field : previous.keySet()) {
+        if (!entry.has(field)) {
+          patch.add(field, JsonNull.INSTANCE);
+        }
+      }
+      if (patch.size() > 0) {
+        patch.add("id", entry.get("id"));
+        patches.add(patch);
+      }
+    }
+    return patches.isEmpty() ? null : toBody(patches);
+  }
+
+  private static String stationOf(JsonObject entry) {
+    JsonElement id = entry.get("id");
+    return id == null || !id.isJsonPrimitive() ? null : id.getAsString();
   }
 
   private String transceive(String host, int port, String data) throws Exception {
@@ -93,45 +257,102 @@ public class ContentServer {
     String[] headerLines = res.split("\r\n");
     for (String line : headerLines) {
       if (line.startsWith("LamportClock: ")) {
-        lamportClock.receive(Integer.parseInt(line.split(": ")[1]));
+        lamportClock.receive(Long.parseLong(line.split(": ")[1]));
         break;
       }
     }
 
-    if (res.contains("200") || res.contains("201")) {
-      System.out.println("\nData uploaded.");
+    int status = statusCode(res);
+    if (status == 200 || status == 201) {
+      if (pendingBody != null) {
+        lastPushedBody = pendingBody;
+        lastPushed = new HashMap<>();
+        pendingData.forEach(entry -> lastPushed.put(stationOf(entry), entry.deepCopy()));
+        pendingBody = null;
+        pendingData = null;
+      }
+      AsyncLogger.debug("Data uploaded.");
     } else {
-      System.out.println("Failed to push data. Server says: " + res);
+      AsyncLogger.warn("Failed to push data. Server says: " + res);
     }
   }
 
-  private void retryPush(String host, int port) {
+  private void retryPush(String host, int port, long delaySeconds) {
     dataUploadScheduler.schedule(new Runnable() {
       @Override
       public void run() {
         processPush(host, port);
       }
-    }, 15, TimeUnit.SECONDS);
+    }, delaySeconds, TimeUnit.SECONDS);
+  }
+
+  // Status code from the status line, -1 if the response does not start with one.
+  static int statusCode(String response) {
+    if (response == null || !response.startsWith("HTTP/") || response.length() < 12) {
+      return -1;
+    }
+    int space = response.indexOf(' ');
+    if (space < 0 || space + 4 > response.length()) {
+      return -1;
+    }
+    try {
+      return Integer.parseInt(response.substring(space + 1, space + 4));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  // Retry-After of a 429 or 503 response, at least 1, and 0 for any other response.
+  static long retryAfterSeconds(String response) {
+    int status = statusCode(response);
+    if (status != 429 && status != 503) {
+      return 0;
+    }
+    for (String line : response.split("\r\n")) {
+      if (line.isEmpty()) {
+        break;
+      }
+      if (line.startsWith("Retry-After: ")) {
+        try {
+          return Math.max(1, Long.parseLong(line.substring("Retry-After: ".length()).trim()));
+        } catch (NumberFormatException e) {
+          break;
+        }
+      }
+    }
+    return 1;
   }
 
   public void terminateResources() {
+    WatchService watcher = inputWatcher;
+    if (watcher != null) {
+      try {
+        watcher.close();
+      } catch (IOException e) {
+        AsyncLogger.warn("Error closing the input watcher: " + e.getMessage());
+      }
+    }
     dataUploadScheduler.shutdown();
     networkHandler.closeResources();
   }
 
   public void loadWeatherDataFromOutside(String path) {
-    System.out.println("Loading weather data from outside: " + path);
+    AsyncLogger.info("Loading weather data from outside: " + path);
     try {
       String fileContent = JSONHandler.readFile(path);
-      JsonObject parsedData = JSONHandler.parseTextToJSON(fileContent);
-      this.setWeatherData(parsedData);
+      this.setWeatherData(JSONHandler.parseTextToJSONList(fileContent));
     } catch (Exception e) {
-      System.out.println("Error 400: " + e.getMessage());
+      AsyncLogger.warn("Error 400: " + e.getMessage());
       return;
     }
   }
 
+  // The first station of the feed.
   public JsonObject getWeatherData() {
+    return this.weatherData == null ? null : this.weatherData.get(0);
+  }
+
+  public List<JsonObject> getWeatherDataBatch() {
     return this.weatherData;
   }
 
@@ -153,9 +374,9 @@ public class ContentServer {
       ContentServer server = new ContentServer(false);
 
       String fileContent = JSONHandler.readFile(path);
-      JsonObject parsedData = JSONHandler.parseTextToJSON(fileContent);
-      server.setWeatherData(parsedData);
+      server.setWeatherData(JSONHandler.parseTextToJSONList(fileContent));
       server.uploadData(host, port);
+      server.watchInputFile(path, host, port);
 
       // Get the current Runtime Environment
       Runtime runtime = Runtime.getRuntime();
@@ -169,7 +390,7 @@ public class ContentServer {
       // Register the new Thread to run upon JVM shutdown
       runtime.addShutdownHook(shutdownHook);
     } catch (Exception e) {
-      System.out.println("Error 400: " + e.getMessage());
+      AsyncLogger.warn("Error 400: " + e.getMessage());
       return;
     }
   }
@@ -1,9 +1,14 @@
 import com.google.gson.JsonObject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class ContentServerTest {
@@ -32,6 +37,71 @@ public class ContentServerTest {
     assertEquals(fakeData, server.getWeatherData());
   }
 
+  @Test
+  public void testBuildRequest_severalStationsInOneBody() {
+    JsonObject first = new JsonObject();
+    first.addProperty("id", "A");
+    JsonObject second = new JsonObject();
+    second.addProperty("id", "B");
+    server.setWeatherData(List.of(first, second));
+
+    String request = server.buildRequest("localhost");
+    assertTrue(request.endsWith("\r\n\r\n[{\"id\":\"A\"},{\"id\":\"B\"}]"));
+    assertEquals(first, server.getWeatherData());
+  }
+
+  @Test
+  public void testBuildRequest_sendsOnlyWhatChangedSinceTheLastPush() {
+    JsonObject data = new JsonObject();
+    data.addProperty("id", "A");
+    data.addProperty("air_temp", "13.3");
+    data.addProperty("cloud", "Partly cloudy with a chance of showers");
+    server.setWeatherData(data);
+    assertFalse(server.buildRequest("localhost").contains("UpdateType"));
+    server.processResponse("HTTP/1.1 201 HTTP_CREATED\r\n\r\n");
+
+    assertTrue(server.buildRequest("localhost").contains("UpdateType: heartbeat\r\n"));
+
+    JsonObject changed = data.deepCopy();
+    changed.addProperty("air_temp", "14.1");
+    server.setWeatherData(changed);
+    String request = server.buildRequest("localhost");
+    assertTrue(request.contains("UpdateType: patch\r\n"));
+    assertTrue(request.endsWith("\r\n\r\n{\"air_temp\":\"14.1\",\"id\":\"A\"}"));
+  }
+
+  @Test
+  public void testProcessResponse_errorWithTwoHundredInAHeaderIsNotAnAcknowledgement() {
+    JsonObject data = new JsonObject();
+    data.addProperty("id", "A");
+    data.addProperty("air_temp", "13.3");
+    server.setWeatherData(data);
+    String fullPush = server.buildRequest("localhost");
+    server.processResponse("HTTP/1.1 500 Internal Server Error\r\nLamportClock: 1200\r\nContent-Length: 0\r\n\r\n");
+
+    String retry = server.buildRequest("localhost");
+    assertFalse(retry.contains("UpdateType"));
+    assertTrue(retry.endsWith(fullPush.substring(fullPush.indexOf("\r\n\r\n"))));
+  }
+
+  @Test
+  public void testWatchInputFile_reloadsOnChange(@TempDir Path dir) throws Exception {
+    Path input = dir.resolve("input.txt");
+    Files.write(input, "id:IDS60901\nair_temp:13.3\n".getBytes());
+    server.watchInputFile(input.toString(), "localhost", 4567);
+    assertEquals("13.3", server.getWeatherData().get("air_temp").getAsString());
+
+    Files.write(input, "id:IDS60901\nair_temp:14.1\n".getBytes());
+
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!"14.1".equals(server.getWeatherData().get("air_temp").getAsString())
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    assertEquals("14.1", server.getWeatherData().get("air_temp").getAsString());
+    server.terminateResources();
+  }
+
   @Test
   public void testAdjustClock() {
     server.adjustClock(5);
@@ -0,0 +1,9 @@
+import java.util.concurrent.ExecutorService;
+
+// Server transport that runs its own accept and read loop and only hands complete
+// requests to the processor, on the workers.
+public interface EventLoopServerHandler extends NetworkHandler {
+
+    // Returns once the processor stops running or the handler is closed.
+    void serve(RequestProcessor processor, ExecutorService workers);
+}
@@ -0,0 +1,84 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+// Hashed timing wheel: a deadline goes into the slot of its tick, and advancing the
+// wheel only looks at the slots of the ticks that passed. Deadlines further away than
+// one turn stay in their slot until the wheel comes around to their tick.
+public class ExpiryWheel<K> {
+  private final long tickMillis;
+  private final List<ArrayDeque<Entry<K>>> slots;
+  // Next tick to process, -1 before the first advance.
+  private long currentTick = -1;
+  private int size;
+
+  private static class Entry<K> {
+    private final K key;
+    private final long deadlineTick;
+
+    Entry(K key, long deadlineTick) {
+      this.key = key;
+      this.deadlineTick = deadlineTick;
+    }
+  }
+
+  public ExpiryWheel(long tickMillis, int slotCount) {
+    if (tickMillis <= 0 || slotCount <= 0) {
+      throw new IllegalArgumentException("Error 400: tickMillis and slotCount must be positive.");
+    }
+    this.tickMillis = tickMillis;
+    this.slots = new ArrayList<>(slotCount);
+    for (int i = 0; i < slotCount; i++) {
+      slots.add(new ArrayDeque<>());
+    }
+  }
+
+  // The key is returned by the first advance() at or after deadlineMillis, never before.
+  public synchronized void schedule(K key, long deadlineMillis) {
+    long deadlineTick = Math.floorDiv(deadlineMillis + tickMillis - 1, tickMillis);
+    if (currentTick >= 0 && deadlineTick < currentTick) {
+      deadlineTick = currentTick;
+    }
+    slots.get(slotOf(deadlineTick)).add(new Entry<>(key, deadlineTick));
+    size++;
+  }
+
+  // Removes and returns the keys whose deadline is at or before nowMillis.
+  public synchronized List<K> advance(long nowMillis) {
+    long nowTick = Math.floorDiv(nowMillis, tickMillis);
+    List<K> expired = new ArrayList<>();
+    if (currentTick < 0 || nowTick - currentTick >= slots.size()) {
+      // First call, or a gap of a full turn: every slot is due once.
+      for (ArrayDeque<Entry<K>> slot : slots) {
+        collect(slot, nowTick, expired);
+      }
+    } else {
+      for (long tick = currentTick; tick <= nowTick; tick++) {
+        collect(slots.get(slotOf(tick)), nowTick, expired);
+      }
+    }
+    currentTick = Math.max(currentTick, nowTick + 1);
+    return expired;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  private void collect(ArrayDeque<Entry<K>> slot, long nowTick, List<K> expired) {
+    Iterator<Entry<K>> entries = slot.iterator();
+    while (entries.hasNext()) {
+      Entry<K> entry = entries.next();
+      if (entry.deadlineTick <= nowTick) {
+        entries.remove();
+        expired.add(entry.key);
+        size--;
+      }
+    }
+  }
+
+  private int slotOf(long tick) {
+    return (int) Math.floorMod(tick, (long) slots.size());
+  }
+}
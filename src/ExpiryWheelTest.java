@@ -0,0 +1,57 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ExpiryWheelTest {
+
+  private ExpiryWheel<String> wheel;
+
+  @BeforeEach
+  public void setup() {
+    wheel = new ExpiryWheel<>(1000, 8);
+    assertTrue(wheel.advance(10_000).isEmpty());
+  }
+
+  @Test
+  public void testAdvance_neverBeforeDeadline() {
+    wheel.schedule("server1", 15_500);
+
+    assertTrue(wheel.advance(15_000).isEmpty());
+    assertTrue(wheel.advance(15_499).isEmpty());
+    assertEquals(List.of("server1"), wheel.advance(16_000));
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void testAdvance_deadlinesBeyondOneTurn() {
+    wheel.schedule("server1", 30_000);
+
+    // 30 s is more than one turn of 8 slots, the slot comes around twice before that.
+    assertTrue(wheel.advance(18_000).isEmpty());
+    assertTrue(wheel.advance(26_000).isEmpty());
+    assertEquals(List.of("server1"), wheel.advance(30_000));
+  }
+
+  @Test
+  public void testAdvance_afterLongGap() {
+    wheel.schedule("server1", 12_000);
+    wheel.schedule("server2", 13_000);
+    wheel.schedule("server3", 500_000);
+
+    List<String> expired = wheel.advance(100_000);
+    assertEquals(2, expired.size());
+    assertTrue(expired.containsAll(List.of("server1", "server2")));
+    assertEquals(1, wheel.size());
+  }
+
+  @Test
+  public void testSchedule_pastDeadlineFiresOnNextTick() {
+    wheel.advance(20_000);
+    wheel.schedule("server1", 5_000);
+
+    assertEquals(List.of("server1"), wheel.advance(21_000));
+  }
+}
@@ -1,6 +1,13 @@
 import com.google.gson.*;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class GETClient {
   private NetworkHandler networkHandler;
@@ -46,7 +53,7 @@ public class GETClient {
   }
 
   public JsonObject getData(String serverName, int port, String stationID) {
-    int currentTime = lamportClock.send();
+    long currentTime = lamportClock.send();
     networkHandler.initializeClientSocket(serverName, port);
     String getRequest = generateRequestString(currentTime, stationID);
     try {
@@ -60,10 +67,149 @@ public class GETClient {
     }
   }
 
-  public String generateRequestString(int currentTime, String stationID) {
+  // Sends one GET per station on a single connection without waiting for each response.
+  public List<JsonObject> getPipelinedData(String serverName, int port, List<String> stationIDs) {
+    List<JsonObject> results = new ArrayList<>();
+    if (networkHandler.initializeClientSocket(serverName, port) == -1) {
+      stationIDs.forEach(stationID -> results.add(null));
+      return results;
+    }
+    List<String> requests = new ArrayList<>();
+    if (!stationIDs.isEmpty()) {
+      // One clock update for the whole pipeline, each request still gets its own time.
+      long firstTime = lamportClock.reserve(stationIDs.size());
+      for (int i = 0; i < stationIDs.size(); i++) {
+        requests.add(generateRequestString(firstTime + i, stationIDs.get(i)));
+      }
+    }
+    for (String response : networkHandler.sendPipelinedRequests(serverName, port, requests)) {
+      results.add(response == null ? null : handleServerResponse(response));
+    }
+    return results;
+  }
+
+  // Latest readings of the given stations in one request, or of every station when
+  // stationIDs is null. Stations the server has no reading for are left out.
+  public List<JsonObject> getBulkData(String serverName, int port, List<String> stationIDs) {
+    long currentTime = lamportClock.send();
+    networkHandler.initializeClientSocket(serverName, port);
+    try {
+      String response = networkHandler.receiveDataFromServer(serverName, port,
+          generateBulkRequestString(currentTime, stationIDs));
+      return handleBulkResponse(response);
+    } catch (Exception e) {
+      System.out.println("Error 400: " + e.getMessage());
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  public String generateBulkRequestString(long currentTime, List<String> stationIDs) {
+    StringBuilder query = new StringBuilder();
+    if (stationIDs == null) {
+      query.append("all");
+    } else {
+      query.append("ids=");
+      for (int i = 0; i < stationIDs.size(); i++) {
+        query.append(i > 0 ? "," : "").append(URLEncoder.encode(stationIDs.get(i), StandardCharsets.UTF_8));
+      }
+    }
+    return "GET /weather.json?" + query + " HTTP/1.1\r\n" +
+        "ServerID: " + serverID + "\r\n" +
+        "LamportClock: " + currentTime + "\r\n" +
+        "Connection: keep-alive\r\n" +
+        "\r\n";
+  }
+
+  public List<JsonObject> handleBulkResponse(String responseStr) {
+    if (responseStr == null || responseStr.startsWith("500")) {
+      System.out.println("Error 500: Incorrect format response");
+      return null;
+    }
+    int bodyStart = responseStr.indexOf("\r\n\r\n");
+    String body = bodyStart < 0 ? responseStr : responseStr.substring(bodyStart + 4);
+    List<JsonObject> readings = new ArrayList<>();
+    try {
+      JsonArray array = gson.fromJson(body, JsonArray.class);
+      if (array == null) {
+        System.out.println("Error 400: No JSON array in response.");
+        return null;
+      }
+      array.forEach(element -> readings.add(element.getAsJsonObject()));
+    } catch (JsonParseException | IllegalStateException e) {
+      System.out.println("Error 400: No JSON array in response.");
+      return null;
+    }
+    return readings;
+  }
+
+  // Long-polls the server for readings of the stations newer than since and hands each
+  // to the listener, until the thread is interrupted or the server cannot be reached.
+  // Pass -1 as since to start with the current readings.
+  public void subscribe(String serverName, int port, List<String> stationIDs, long since,
+      Consumer<JsonObject> listener) {
+    long lastReadingTime = since;
+    while (!Thread.currentThread().isInterrupted()) {
+      if (networkHandler.initializeClientSocket(serverName, port) == -1) {
+        return;
+      }
+      String response = networkHandler.receiveDataFromServer(serverName, port,
+          generateSubscribeRequestString(lamportClock.send(), stationIDs, lastReadingTime));
+      if (response == null) {
+        return;
+      }
+      if (response.startsWith("HTTP/1.1 204")) {
+        continue;
+      }
+      long retryAfter = ContentServer.retryAfterSeconds(response);
+      if (retryAfter > 0) {
+        // The server has as many subscriptions waiting as it allows, ask again later.
+        try {
+          Thread.sleep(TimeUnit.SECONDS.toMillis(retryAfter));
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        continue;
+      }
+      List<JsonObject> readings = handleBulkResponse(response);
+      if (readings == null) {
+        return;
+      }
+      lastReadingTime = Math.max(lastReadingTime, extractLastReadingTime(response));
+      readings.forEach(listener);
+    }
+  }
+
+  public String generateSubscribeRequestString(long currentTime, List<String> stationIDs, long since) {
+    StringBuilder query = new StringBuilder("subscribe=");
+    for (int i = 0; i < stationIDs.size(); i++) {
+      query.append(i > 0 ? "," : "").append(URLEncoder.encode(stationIDs.get(i), StandardCharsets.UTF_8));
+    }
+    return "GET /weather.json?" + query + "&since=" + since + " HTTP/1.1\r\n" +
+        "ServerID: " + serverID + "\r\n" +
+        "LamportClock: " + currentTime + "\r\n" +
+        "Connection: keep-alive\r\n" +
+        "\r\n";
+  }
+
+  public long extractLastReadingTime(String responseStr) {
+    for (String line : responseStr.split("\r\n")) {
+      if (line.isEmpty()) {
+        break;
+      }
+      if (line.startsWith("LastReadingTime: ")) {
+        return Long.parseLong(line.substring("LastReadingTime: ".length()).trim());
+      }
+    }
+    return -1;
+  }
+
+  public String generateRequestString(long currentTime, String stationID) {
     return "GET /weather.json HTTP/1.1\r\n" +
         "ServerID: " + serverID + "\r\n" +
         "LamportClock: " + currentTime + "\r\n" +
+        "Connection: keep-alive\r\n" +
         (stationID != null ? "StationID: " + stationID + "\r\n" : "") +
         "\r\n";
   }
@@ -109,6 +255,18 @@ public class GETClient {
     // Initialize network handler and client
     GETClient client = new GETClient(false);
 
+    // A comma-separated list of stations is fetched in one bulk request.
+    if (stationID != null && stationID.contains(",")) {
+      List<JsonObject> readings = client.getBulkData(serverName, port, Arrays.asList(stationID.split(",")));
+      if (readings == null) {
+        client.interpretResponse(null);
+      } else {
+        readings.forEach(client::interpretResponse);
+      }
+      client.networkHandler.closeResources();
+      return;
+    }
+
     // Get and interpret the data
     JsonObject response = client.getData(serverName, port, stationID);
     client.interpretResponse(response);
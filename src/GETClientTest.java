@@ -3,6 +3,9 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class GETClientTest {
@@ -59,6 +62,31 @@ public class GETClientTest {
         assertEquals(fakeJson, getClient.handleServerResponse("{\"fake\": \"data\"}"));
     }
 
+    @Test
+    public void testGenerateBulkRequestString() {
+        assertTrue(getClient.generateBulkRequestString(1, List.of("A", "B C"))
+            .startsWith("GET /weather.json?ids=A,B+C HTTP/1.1\r\n"));
+        assertTrue(getClient.generateBulkRequestString(1, null).startsWith("GET /weather.json?all HTTP/1.1\r\n"));
+    }
+
+    @Test
+    public void testHandleBulkResponse_array() {
+        List<JsonObject> readings = getClient.handleBulkResponse(
+            "HTTP/1.1 200 OK\r\nContent-Length: 23\r\n\r\n[{\"id\":\"A\"},{\"id\":\"B\"}]");
+        assertEquals(2, readings.size());
+        assertEquals("B", readings.get(1).get("id").getAsString());
+        assertNull(getClient.handleBulkResponse("HTTP/1.1 200 OK\r\n\r\n{\"id\":\"A\"}"));
+    }
+
+    @Test
+    public void testSubscribeRequestAndLastReadingTime() {
+        assertTrue(getClient.generateSubscribeRequestString(1, List.of("A", "B"), 7)
+            .startsWith("GET /weather.json?subscribe=A,B&since=7 HTTP/1.1\r\n"));
+        assertEquals(12, getClient.extractLastReadingTime(
+            "HTTP/1.1 200 OK\r\nLastReadingTime: 12\r\n\r\n[]"));
+        assertEquals(-1, getClient.extractLastReadingTime("HTTP/1.1 200 OK\r\n\r\n[]"));
+    }
+
     @Test
     public void testGetNetworkHandler() {
         assertEquals(networkHandler, getClient.getNetworkHandler());
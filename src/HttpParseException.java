@@ -0,0 +1,15 @@
+public class HttpParseException extends IllegalArgumentException {
+  private static final long serialVersionUID = 1L;
+
+  private final String status;
+
+  public HttpParseException(String status, String message) {
+    super("Error " + status.split(" ")[0] + ": " + message);
+    this.status = status;
+  }
+
+  // Status line text to answer the client with, e.g. "431 Request Header Fields Too Large".
+  public String getStatus() {
+    return status;
+  }
+}
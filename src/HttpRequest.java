@@ -0,0 +1,100 @@
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+// A parsed request. The body is a slice of the buffer it was parsed from and is only
+// valid until that buffer is reused, call detach() to keep it longer.
+public class HttpRequest {
+  private final String method;
+  private final String path;
+  private final String version;
+  private final Map<String, String> headers;
+  private final int contentLength;
+  private byte[] bodyData;
+  private int bodyOffset;
+  private int consumedBytes;
+
+  public HttpRequest(String method, String path, String version, Map<String, String> headers, int contentLength) {
+    this.method = method;
+    this.path = path;
+    this.version = version;
+    this.headers = headers;
+    this.contentLength = contentLength;
+  }
+
+  void setBody(byte[] data, int offset) {
+    this.bodyData = data;
+    this.bodyOffset = offset;
+  }
+
+  void setConsumedBytes(int consumedBytes) {
+    this.consumedBytes = consumedBytes;
+  }
+
+  public String getMethod() {
+    return method;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public String getVersion() {
+    return version;
+  }
+
+  // Header names are case-insensitive.
+  public Map<String, String> getHeaders() {
+    return headers;
+  }
+
+  public String getHeader(String name) {
+    return headers.get(name);
+  }
+
+  public int getContentLength() {
+    return contentLength;
+  }
+
+  // Number of bytes of the input buffer this request occupied, including leading blank lines.
+  public int getConsumedBytes() {
+    return consumedBytes;
+  }
+
+  public Reader getBodyReader() {
+    if (bodyData == null) {
+      return new InputStreamReader(new ByteArrayInputStream(new byte[0]), StandardCharsets.UTF_8);
+    }
+    return new InputStreamReader(new ByteArrayInputStream(bodyData, bodyOffset, contentLength), StandardCharsets.UTF_8);
+  }
+
+  public String getBodyAsString() {
+    if (bodyData == null) {
+      return "";
+    }
+    return new String(bodyData, bodyOffset, contentLength, StandardCharsets.UTF_8);
+  }
+
+  // Copies the body out of the shared read buffer.
+  public HttpRequest detach() {
+    if (bodyData != null && (bodyOffset != 0 || bodyData.length != contentLength)) {
+      byte[] copy = new byte[contentLength];
+      System.arraycopy(bodyData, bodyOffset, copy, 0, contentLength);
+      bodyData = copy;
+      bodyOffset = 0;
+    }
+    return this;
+  }
+
+  // HTTP/1.1 connections are persistent unless the client asks to close them,
+  // HTTP/1.0 connections only when the client asks for keep-alive.
+  public boolean isKeepAlive() {
+    String connection = headers.get("Connection");
+    if ("HTTP/1.0".equals(version)) {
+      return "keep-alive".equalsIgnoreCase(connection);
+    }
+    return !"close".equalsIgnoreCase(connection);
+  }
+}
@@ -0,0 +1,210 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Incremental request parser working directly on a byte buffer. Only header names and
+// values are turned into Strings, the body is returned as a slice of the input buffer.
+// One parser instance keeps the progress of one connection between calls.
+public class HttpRequestParser {
+  public static final int DEFAULT_MAX_HEADER_BYTES = 8192;
+  public static final int DEFAULT_MAX_BODY_BYTES = 1 << 20;
+  private static final byte[] CONTENT_LENGTH = "content-length".getBytes(StandardCharsets.US_ASCII);
+
+  private final int maxHeaderBytes;
+  private final int maxBodyBytes;
+  // Progress of the request currently being received, relative to the start of its request line.
+  private int scanned;
+  private int headStart;
+  private int headLength;
+  private HttpRequest pending;
+
+  public HttpRequestParser() {
+    this(DEFAULT_MAX_HEADER_BYTES, DEFAULT_MAX_BODY_BYTES);
+  }
+
+  public HttpRequestParser(int maxHeaderBytes, int maxBodyBytes) {
+    this.maxHeaderBytes = maxHeaderBytes;
+    this.maxBodyBytes = maxBodyBytes;
+  }
+
+  // Parses the request starting at data[from] and returns it once data[from, limit)
+  // holds the full head and body, or null if more bytes are needed.
+  public HttpRequest parse(byte[] data, int from, int limit) {
+    if (pending == null) {
+      int start = from;
+      while (start < limit && (data[start] == '\r' || data[start] == '\n')) {
+        start++;
+      }
+
+      int headEnd = findHeadEnd(data, start + Math.max(0, scanned - 3), limit);
+      if (headEnd == -1) {
+        scanned = limit - start;
+        if (scanned > maxHeaderBytes) {
+          reset();
+          throw new HttpParseException("431 Request Header Fields Too Large", "Request head exceeds "
+              + maxHeaderBytes + " bytes.");
+        }
+        return null;
+      }
+      if (headEnd - start > maxHeaderBytes) {
+        reset();
+        throw new HttpParseException("431 Request Header Fields Too Large", "Request head exceeds "
+            + maxHeaderBytes + " bytes.");
+      }
+
+      pending = parseHead(data, start, headEnd);
+      headStart = start - from;
+      headLength = headEnd - start;
+    }
+
+    int bodyStart = from + headStart + headLength;
+    int contentLength = pending.getContentLength();
+    if (limit - bodyStart < contentLength) {
+      return null;
+    }
+
+    HttpRequest request = pending;
+    if (contentLength > 0) {
+      request.setBody(data, bodyStart);
+    }
+    request.setConsumedBytes(headStart + headLength + contentLength);
+    reset();
+    return request;
+  }
+
+  // Parses a complete message. Without a Content-Length header the rest of the input
+  // is taken as the body, which keeps hand-written requests working.
+  public static HttpRequest parseMessage(byte[] data) {
+    if (findHeadEnd(data, 0, data.length) == -1) {
+      // Tolerate a missing blank line after the last header.
+      byte[] terminated = new byte[data.length + 4];
+      System.arraycopy(data, 0, terminated, 0, data.length);
+      System.arraycopy(new byte[] { '\r', '\n', '\r', '\n' }, 0, terminated, data.length, 4);
+      data = terminated;
+    }
+
+    HttpRequest request = new HttpRequestParser(Integer.MAX_VALUE, Integer.MAX_VALUE).parse(data, 0, data.length);
+    if (request == null) {
+      throw new HttpParseException("400 Bad Request", "Body shorter than Content-Length.");
+    }
+    int remaining = data.length - request.getConsumedBytes();
+    if (request.getHeader("Content-Length") != null || remaining == 0) {
+      return request;
+    }
+
+    HttpRequest withBody = new HttpRequest(request.getMethod(), request.getPath(), request.getVersion(),
+        request.getHeaders(), remaining);
+    withBody.setBody(data, request.getConsumedBytes());
+    withBody.setConsumedBytes(data.length);
+    return withBody;
+  }
+
+  public void reset() {
+    scanned = 0;
+    headStart = 0;
+    headLength = 0;
+    pending = null;
+  }
+
+  // Returns the index just past the blank line ending the head, or -1.
+  private static int findHeadEnd(byte[] data, int from, int limit) {
+    for (int i = Math.max(from, 3); i < limit; i++) {
+      if (data[i] == '\n' && data[i - 1] == '\r' && data[i - 2] == '\n' && data[i - 3] == '\r') {
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+
+  private HttpRequest parseHead(byte[] data, int start, int end) {
+    int lineEnd = indexOf(data, start, end, (byte) '\r');
+    int firstSpace = indexOf(data, start, lineEnd, (byte) ' ');
+    int secondSpace = firstSpace == -1 ? -1 : indexOf(data, firstSpace + 1, lineEnd, (byte) ' ');
+    if (firstSpace <= start || secondSpace == -1) {
+      throw new HttpParseException("400 Bad Request", "Malformed request line.");
+    }
+
+    String method = method(data, start, firstSpace);
+    String path = new String(data, firstSpace + 1, secondSpace - firstSpace - 1, StandardCharsets.ISO_8859_1);
+    String version = new String(data, secondSpace + 1, lineEnd - secondSpace - 1, StandardCharsets.ISO_8859_1);
+
+    Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    int contentLength = 0;
+    int lineStart = lineEnd + 2;
+    // end - 2 is the CRLF of the terminating blank line.
+    while (lineStart < end - 2) {
+      lineEnd = indexOf(data, lineStart, end, (byte) '\r');
+      int colon = indexOf(data, lineStart, lineEnd, (byte) ':');
+      if (colon <= lineStart) {
+        throw new HttpParseException("400 Bad Request", "Malformed header line.");
+      }
+      int valueStart = colon + 1;
+      while (valueStart < lineEnd && (data[valueStart] == ' ' || data[valueStart] == '\t')) {
+        valueStart++;
+      }
+      int valueEnd = lineEnd;
+      while (valueEnd > valueStart && (data[valueEnd - 1] == ' ' || data[valueEnd - 1] == '\t')) {
+        valueEnd--;
+      }
+
+      if (equalsIgnoreCase(data, lineStart, colon, CONTENT_LENGTH)) {
+        contentLength = parseContentLength(data, valueStart, valueEnd);
+      }
+      headers.put(new String(data, lineStart, colon - lineStart, StandardCharsets.ISO_8859_1),
+          new String(data, valueStart, valueEnd - valueStart, StandardCharsets.ISO_8859_1));
+      lineStart = lineEnd + 2;
+    }
+    return new HttpRequest(method, path, version, headers, contentLength);
+  }
+
+  private int parseContentLength(byte[] data, int from, int to) {
+    if (from == to) {
+      throw new HttpParseException("400 Bad Request", "Empty Content-Length.");
+    }
+    long value = 0;
+    for (int i = from; i < to; i++) {
+      if (data[i] < '0' || data[i] > '9') {
+        throw new HttpParseException("400 Bad Request", "Invalid Content-Length.");
+      }
+      value = value * 10 + (data[i] - '0');
+      if (value > maxBodyBytes) {
+        throw new HttpParseException("413 Payload Too Large", "Body exceeds " + maxBodyBytes + " bytes.");
+      }
+    }
+    return (int) value;
+  }
+
+  // Common methods map to constants so the hot path does not allocate them.
+  private static String method(byte[] data, int from, int to) {
+    if (to - from == 3 && data[from + 2] == 'T') {
+      if (data[from] == 'G' && data[from + 1] == 'E') {
+        return "GET";
+      }
+      if (data[from] == 'P' && data[from + 1] == 'U') {
+        return "PUT";
+      }
+    }
+    return new String(data, from, to - from, StandardCharsets.ISO_8859_1);
+  }
+
+  private static int indexOf(byte[] data, int from, int to, byte value) {
+    for (int i = from; i < to; i++) {
+      if (data[i] == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean equalsIgnoreCase(byte[] data, int from, int to, byte[] lowerCase) {
+    if (to - from != lowerCase.length) {
+      return false;
+    }
+    for (int i = 0; i < lowerCase.length; i++) {
+      if (Character.toLowerCase(data[from + i]) != lowerCase[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
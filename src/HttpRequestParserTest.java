@@ -0,0 +1,97 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HttpRequestParserTest {
+
+  private HttpRequestParser parser;
+
+  @BeforeEach
+  public void setup() {
+    parser = new HttpRequestParser();
+  }
+
+  private static byte[] bytes(String text) {
+    return text.getBytes(StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void testParse_getRequest() {
+    byte[] data = bytes("GET /weather.json HTTP/1.1\r\nStationID: IDS60901\r\nLamportClock: 3\r\n\r\n");
+    HttpRequest request = parser.parse(data, 0, data.length);
+    assertNotNull(request);
+    assertEquals("GET", request.getMethod());
+    assertEquals("/weather.json", request.getPath());
+    assertEquals("HTTP/1.1", request.getVersion());
+    assertEquals("IDS60901", request.getHeader("StationID"));
+    assertEquals("3", request.getHeader("lamportclock"));
+    assertEquals(data.length, request.getConsumedBytes());
+  }
+
+  @Test
+  public void testParse_incompleteInputReturnsNull() {
+    byte[] data = bytes("PUT /weather.json HTTP/1.1\r\nContent-Length: 4\r\n\r\nabcd");
+    assertNull(parser.parse(data, 0, 20));
+    assertNull(parser.parse(data, 0, data.length - 1));
+    HttpRequest request = parser.parse(data, 0, data.length);
+    assertNotNull(request);
+    assertEquals("abcd", request.getBodyAsString());
+  }
+
+  @Test
+  public void testParse_contentLengthCountsBytes() {
+    String body = "{\"name\":\"Caf\u00e9\"}";
+    byte[] bodyBytes = bytes(body);
+    byte[] data = bytes("PUT /weather.json HTTP/1.1\r\nContent-Length: " + bodyBytes.length + "\r\n\r\n" + body);
+    HttpRequest request = parser.parse(data, 0, data.length);
+    assertNotNull(request);
+    assertEquals(body, request.getBodyAsString());
+    assertEquals(data.length, request.getConsumedBytes());
+  }
+
+  @Test
+  public void testParse_pipelinedRequests() {
+    byte[] data = bytes("GET /a HTTP/1.1\r\n\r\n\nGET /b HTTP/1.1\r\nConnection: close\r\n\r\n");
+    HttpRequest first = parser.parse(data, 0, data.length);
+    assertEquals("/a", first.getPath());
+    HttpRequest second = parser.parse(data, first.getConsumedBytes(), data.length);
+    assertEquals("/b", second.getPath());
+    assertFalse(second.isKeepAlive());
+    assertEquals(data.length, first.getConsumedBytes() + second.getConsumedBytes());
+  }
+
+  @Test
+  public void testParse_oversizeHeadRejectedBeforeTerminator() {
+    HttpRequestParser smallParser = new HttpRequestParser(64, 1024);
+    StringBuilder head = new StringBuilder("GET / HTTP/1.1\r\n");
+    while (head.length() < 100) {
+      head.append("X-Filler: aaaaaaaa\r\n");
+    }
+    byte[] data = bytes(head.toString());
+    HttpParseException e = assertThrows(HttpParseException.class, () -> smallParser.parse(data, 0, data.length));
+    assertTrue(e.getStatus().startsWith("431"));
+  }
+
+  @Test
+  public void testParse_oversizeBodyRejected() {
+    HttpRequestParser smallParser = new HttpRequestParser(1024, 16);
+    byte[] data = bytes("PUT / HTTP/1.1\r\nContent-Length: 17\r\n\r\n");
+    HttpParseException e = assertThrows(HttpParseException.class, () -> smallParser.parse(data, 0, data.length));
+    assertTrue(e.getStatus().startsWith("413"));
+  }
+
+  @Test
+  public void testParse_malformedRequestLine() {
+    byte[] data = bytes("GARBAGE\r\n\r\n");
+    assertThrows(HttpParseException.class, () -> parser.parse(data, 0, data.length));
+  }
+
+  @Test
+  public void testParseMessage_bodyWithoutContentLength() {
+    HttpRequest request = HttpRequestParser.parseMessage(bytes("PUT / HTTP/1.1\r\nServerID: s\r\n\r\n{id:\"a\"}"));
+    assertEquals("{id:\"a\"}", request.getBodyAsString());
+  }
+}
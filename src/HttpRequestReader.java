@@ -0,0 +1,87 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+
+// Reads consecutive requests from a blocking stream into one reusable buffer.
+// A returned request's body is only valid until the next call to read().
+public class HttpRequestReader {
+  private final InputStream input;
+  private final HttpRequestParser parser = new HttpRequestParser();
+  private byte[] buffer = new byte[4096];
+  private int start;
+  private int limit;
+
+  public HttpRequestReader(InputStream input) {
+    this.input = input;
+  }
+
+  // Returns null when the stream ends between requests.
+  public HttpRequest read() throws IOException {
+    while (true) {
+      HttpRequest request = parser.parse(buffer, start, limit);
+      if (request != null) {
+        start += request.getConsumedBytes();
+        return request;
+      }
+
+      if (start == limit) {
+        start = 0;
+        limit = 0;
+      }
+      makeRoom();
+      int read = input.read(buffer, limit, buffer.length - limit);
+      if (read == -1) {
+        if (isBlank(start, limit)) {
+          return null;
+        }
+        throw new HttpParseException("400 Bad Request", "Connection closed in the middle of a request.");
+      }
+      limit += read;
+    }
+  }
+
+  // Waits for the start of the next request unless part of it is already buffered.
+  // False when the stream's read timed out first, true also at the end of the stream,
+  // which the following read() reports.
+  public boolean awaitInput() throws IOException {
+    if (start < limit) {
+      return true;
+    }
+    start = 0;
+    limit = 0;
+    try {
+      int read = input.read(buffer, 0, buffer.length);
+      if (read > 0) {
+        limit = read;
+      }
+      return true;
+    } catch (SocketTimeoutException e) {
+      return false;
+    }
+  }
+
+  private void makeRoom() {
+    if (limit < buffer.length) {
+      return;
+    }
+    if (start > 0) {
+      System.arraycopy(buffer, start, buffer, 0, limit - start);
+      limit -= start;
+      start = 0;
+      return;
+    }
+    // The parser rejects oversize heads and bodies before the buffer can grow without bound.
+    byte[] grown = new byte[buffer.length * 2];
+    System.arraycopy(buffer, 0, grown, 0, limit);
+    buffer = grown;
+  }
+
+  private boolean isBlank(int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (buffer[i] != '\r' && buffer[i] != '\n') {
+        return false;
+      }
+    }
+    return true;
+  }
+}
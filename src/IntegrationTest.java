@@ -1,8 +1,17 @@
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
 import com.google.gson.*;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 
 public class IntegrationTest {
 
@@ -11,18 +20,19 @@ public class IntegrationTest {
   private GETClient client;
   private int port = 4567;
 
+  @TempDir
+  Path dataDir;
+
   @BeforeEach
   public void setup() {
     // Set up necessary components before each test
-    aggregationServer = new AggregationServer(false);
-    new Thread(() -> {
-      aggregationServer.start(port);
-      try {
-        Thread.sleep(1000); // Sleep for 1000 milliseconds after starting
-      } catch (InterruptedException e) {
-        e.printStackTrace();
-      }
-    }).start();
+    aggregationServer = new AggregationServer(false, new ServerConfig().setDataDirectory(dataDir.toString()));
+    new Thread(() -> aggregationServer.start(port)).start();
+    try {
+      Thread.sleep(1000); // Give the server time to bind before the test connects
+    } catch (InterruptedException e) {
+      e.printStackTrace();
+    }
     contentServer = new ContentServer(false);
     client = new GETClient(false);
   }
@@ -62,6 +72,72 @@ public class IntegrationTest {
     assertEquals("IDS60901", response.get("id").getAsString());
   }
 
+  @Test
+  public void testGETClientPipelinedRequests_keepAlive() throws IOException, InterruptedException {
+    contentServer.setWeatherData(JSONHandler.parseTextToJSON(JSONHandler.readFile("src/weather_test.txt")));
+    contentServer.processPush("localhost", port);
+
+    List<JsonObject> responses = client.getPipelinedData("localhost", port, Arrays.asList("IDS60901", "IDS60901"));
+    assertEquals(2, responses.size());
+    assertEquals("IDS60901", responses.get(0).get("id").getAsString());
+    assertEquals("IDS60901", responses.get(1).get("id").getAsString());
+
+    // The connection stays open for the next request.
+    assertFalse(client.getNetworkHandler().checkClientSocketIsClosed());
+    JsonObject response = client.getData("localhost", port, "IDS60901");
+    assertEquals("IDS60901", response.get("id").getAsString());
+  }
+
+  @Test
+  public void testAcknowledgedDataSurvivesRestart() throws IOException, InterruptedException {
+    contentServer.setWeatherData(JSONHandler.parseTextToJSON(JSONHandler.readFile("src/weather_test.txt")));
+    contentServer.processPush("localhost", port);
+    contentServer.terminateResources();
+
+    // The reading is only in the write-ahead log, the first snapshot ran before it.
+    aggregationServer.terminate();
+    Thread.sleep(1000);
+    aggregationServer = new AggregationServer(false, new ServerConfig().setDataDirectory(dataDir.toString()));
+    new Thread(() -> aggregationServer.start(port)).start();
+    Thread.sleep(1000);
+
+    JsonObject data = aggregationServer.getWeatherData("IDS60901");
+    assertNotNull(data);
+    assertEquals("IDS60901", data.get("id").getAsString());
+  }
+
+  @Test
+  public void testBatchedPutSurvivesRestart() throws IOException, InterruptedException {
+    contentServer.setWeatherData(List.of(
+        JSONHandler.parseTextToJSON(JSONHandler.readFile("src/weather_test.txt")),
+        JSONHandler.parseTextToJSON(JSONHandler.readFile("src/weather_test_1.txt"))));
+    contentServer.processPush("localhost", port);
+    contentServer.terminateResources();
+
+    aggregationServer.terminate();
+    Thread.sleep(1000);
+    aggregationServer = new AggregationServer(false, new ServerConfig().setDataDirectory(dataDir.toString()));
+    new Thread(() -> aggregationServer.start(port)).start();
+    Thread.sleep(1000);
+
+    assertNotNull(aggregationServer.getWeatherData("IDS60901"));
+    assertNotNull(aggregationServer.getWeatherData("IDS60902"));
+  }
+
+  @Test
+  public void testHeartbeatsKeepTheDataPastTheExpiryWindow() throws Exception {
+    contentServer.setWeatherData(JSONHandler.parseTextToJSON(JSONHandler.readFile("src/weather_test.txt")));
+    contentServer.uploadData("localhost", port);
+    Thread.sleep(AggregationServer.STALE_AFTER_MILLIS + 5000);
+
+    assertNotNull(aggregationServer.getWeatherData("IDS60901"));
+    String metrics = aggregationServer.processRequest("GET /metrics HTTP/1.1\r\nLamportClock: 1\r\n\r\n");
+    // One full push, then heartbeats the server accepted without asking for the data again.
+    assertTrue(metrics.contains("weather_requests_total{method=\"PUT\",status=\"201\"} 1\n"));
+    assertTrue(metrics.contains("weather_requests_total{method=\"PUT\",status=\"200\"} 2\n"));
+    assertFalse(metrics.contains("status=\"409\""));
+  }
+
   @Test
   public void testGETClientToContentServer_malformedRequest() throws InterruptedException {
     JsonObject response = client.getData("localhost", port, null);
@@ -89,11 +165,11 @@ public class IntegrationTest {
 
   @Test
   public void testLamportClockWithAggregationServer() throws InterruptedException {
-    int initialTime = aggregationServer.getLamportClockTime();
+    long initialTime = aggregationServer.getLamportClockTime();
 
     client.getData("localhost", port, "testStationID");
 
-    int newTime = aggregationServer.getLamportClockTime();
+    long newTime = aggregationServer.getLamportClockTime();
     assertTrue(newTime > initialTime);
   }
 
@@ -159,4 +235,105 @@ public class IntegrationTest {
     assertNotNull(data2);
   }
 
+  // A second server on port + 1 with a single worker.
+  private AggregationServer startSingleWorkerServer(int queueCapacity) throws Exception {
+    AggregationServer server = new AggregationServer(false, new ServerConfig()
+        .setDataDirectory(Files.createDirectories(dataDir.resolve("busy")).toString())
+        .setWorkerThreads(1)
+        .setQueueCapacity(queueCapacity)
+        .setKeepAliveTimeoutMillis(10000));
+    new Thread(() -> server.start(port + 1)).start();
+    Thread.sleep(1000);
+    return server;
+  }
+
+  @Test
+  public void testGreetingIsSentByTheWorker() throws Exception {
+    int busyPort = port + 1;
+    AggregationServer busy = startSingleWorkerServer(16);
+    Socket served = new Socket("localhost", busyPort);
+    Socket queued = null;
+    try {
+      assertTrue(readsGreeting(served, 5000));
+      queued = new Socket("localhost", busyPort);
+      // Accepted, but not greeted until the only worker is free.
+      assertFalse(readsGreeting(queued, 500));
+      served.close();
+      assertTrue(readsGreeting(queued, 5000));
+    } finally {
+      served.close();
+      if (queued != null) {
+        queued.close();
+      }
+      busy.terminate();
+    }
+  }
+
+  @Test
+  public void testIdleKeptAliveConnectionMakesWayForAQueuedOne() throws Exception {
+    int busyPort = port + 1;
+    AggregationServer busy = startSingleWorkerServer(16);
+    Socket idle = new Socket("localhost", busyPort);
+    Socket queued = new Socket("localhost", busyPort);
+    try {
+      assertTrue(readsGreeting(idle, 5000));
+      idle.getOutputStream().write(("GET /weather.json HTTP/1.1\r\nLamportClock: 1\r\n"
+          + "Connection: keep-alive\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+      // Well within the 10 s keep-alive time of the idle connection.
+      assertTrue(readsGreeting(queued, 3000));
+    } finally {
+      idle.close();
+      queued.close();
+      busy.terminate();
+    }
+  }
+
+  private static boolean readsGreeting(Socket socket, int timeoutMillis) throws IOException {
+    socket.setSoTimeout(timeoutMillis);
+    byte[] expected = "LamportClock: ".getBytes(StandardCharsets.UTF_8);
+    try {
+      return Arrays.equals(expected, socket.getInputStream().readNBytes(expected.length));
+    } catch (SocketTimeoutException e) {
+      return false;
+    }
+  }
+
+  @Test
+  public void testFullAdmissionQueueAnswers503() throws Exception {
+    int busyPort = port + 1;
+    AggregationServer busy = startSingleWorkerServer(1);
+    // The first connection holds the only worker, the second fills the queue.
+    Socket served = new Socket("localhost", busyPort);
+    Socket queued = null;
+    try {
+      Thread.sleep(300);
+      queued = new Socket("localhost", busyPort);
+      Thread.sleep(300);
+      try (Socket refused = new Socket("localhost", busyPort)) {
+        refused.setSoTimeout(5000);
+        InputStream in = refused.getInputStream();
+        String received = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        assertTrue(received.contains("HTTP/1.1 503 Service Unavailable\r\n"));
+        assertTrue(received.contains("Retry-After: 1\r\n"));
+        assertTrue(received.contains("Connection: close\r\n"));
+      }
+    } finally {
+      served.close();
+      if (queued != null) {
+        queued.close();
+      }
+      busy.terminate();
+    }
+  }
+
+  @Test
+  public void testMalformedLamportClockGets400() throws Exception {
+    try (Socket socket = new Socket("localhost", port)) {
+      socket.setSoTimeout(5000);
+      socket.getOutputStream().write(("GET /weather.json HTTP/1.1\r\nLamportClock: abc\r\n"
+          + "Connection: close\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+      String received = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+      assertTrue(received.contains("HTTP/1.1 400 Bad Request\r\n"));
+    }
+  }
 }
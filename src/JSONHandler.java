@@ -1,7 +1,9 @@
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -81,4 +83,22 @@ public class JSONHandler {
 
         return gson.toJsonTree(jsonData).getAsJsonObject();
     }
+
+    // A feed with several stations separates their blocks with blank lines.
+    public static List<JsonObject> parseTextToJSONList(String inputText) throws IllegalArgumentException {
+        if (inputText == null) {
+            throw new IllegalArgumentException("Input text is null.");
+        }
+
+        List<JsonObject> entries = new ArrayList<>();
+        for (String block : inputText.split("\n(?:[ \t]*\n)+")) {
+            if (!block.trim().isEmpty()) {
+                entries.add(parseTextToJSON(block.trim()));
+            }
+        }
+        if (entries.isEmpty()) {
+            throw new IllegalArgumentException("Input text has no entries.");
+        }
+        return entries;
+    }
 }
@@ -4,6 +4,7 @@ import org.junit.jupiter.api.*;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.io.IOException;
+import java.util.List;
 
 public class JSONHandlerTest {
 
@@ -46,6 +47,15 @@ public class JSONHandlerTest {
         assertEquals("value2", result.get("key2").getAsString());
     }
 
+    @Test
+    public void testParseTextToJSONList_blocksSeparatedByBlankLines() {
+        List<JsonObject> result = JSONHandler.parseTextToJSONList("id: A\nkey: 1\n\n \nid: B\n");
+        assertEquals(2, result.size());
+        assertEquals("1", result.get(0).get("key").getAsString());
+        assertEquals("B", result.get(1).get("id").getAsString());
+        assertThrows(IllegalArgumentException.class, () -> JSONHandler.parseTextToJSONList("\n\n"));
+    }
+
     @Test
     public void testParseJSONtoText_nullJsonObject() {
         assertThrows(IllegalArgumentException.class, () -> JSONHandler.parseJSONtoText(null));
@@ -1,29 +1,40 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+// Every update is a single atomic operation, so request threads never block on the
+// clock. The counter is 64 bits wide and does not wrap in any realistic lifetime.
 public class LamportClock {
-  private volatile int time; // Mark as volatile for visibility in multi-threaded context
+  private final AtomicLong time = new AtomicLong();
 
   public LamportClock() {
-    this.time = 0;
   }
 
-  public synchronized int send() {
-    tick();
-    return time;
+  public long send() {
+    return time.incrementAndGet();
+  }
+
+  public long getTime() {
+    return time.get();
   }
 
-  public int getTime() {
-    return time;
+  public void tick() {
+    time.incrementAndGet();
   }
 
-  public synchronized void tick() {
-    time++;
+  public long receive(long receivedTimestamp) {
+    return time.accumulateAndGet(receivedTimestamp, (current, received) -> Math.max(current, received) + 1);
   }
 
-  public synchronized void receive(int receivedTimestamp) {
-    time = Math.max(time, receivedTimestamp) + 1;
+  // Takes count consecutive timestamps with one update and returns the first, for
+  // callers that stamp several messages at once.
+  public long reserve(int count) {
+    if (count <= 0) {
+      throw new IllegalArgumentException("Error 400: count must be positive.");
+    }
+    return time.getAndAdd(count) + 1;
   }
 
   @Override
   public String toString() {
-    return "LamportClock [time=" + time + "]";
+    return "LamportClock [time=" + time.get() + "]";
   }
 }
@@ -1,6 +1,11 @@
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class LamportClockTest {
@@ -25,7 +30,7 @@ public class LamportClockTest {
 
     @Test
     public void testSend() {
-        int timeSent = lamportClock.send();
+        long timeSent = lamportClock.send();
         assertEquals(1, timeSent);
         assertEquals(1, lamportClock.getTime());
     }
@@ -42,4 +47,49 @@ public class LamportClockTest {
         lamportClock.receive(0);
         assertEquals(2, lamportClock.getTime());
     }
+
+    @Test
+    public void testReceive_beyondIntRange() {
+        lamportClock.receive(Integer.MAX_VALUE);
+        assertEquals(Integer.MAX_VALUE + 1L, lamportClock.getTime());
+        assertEquals(Integer.MAX_VALUE + 2L, lamportClock.send());
+    }
+
+    @Test
+    public void testReserve_returnsFirstOfRange() {
+        lamportClock.send();
+        assertEquals(2, lamportClock.reserve(5));
+        assertEquals(6, lamportClock.getTime());
+        assertEquals(7, lamportClock.send());
+    }
+
+    @Test
+    public void testReserve_rejectsEmptyRange() {
+        assertThrows(IllegalArgumentException.class, () -> lamportClock.reserve(0));
+    }
+
+    @Test
+    public void testConcurrentUpdates_neverHandOutATimeTwice() throws InterruptedException {
+        Set<Long> seen = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    long received = lamportClock.receive(i);
+                    assertTrue(seen.add(received));
+                    long first = lamportClock.reserve(3);
+                    for (long time = first; time < first + 3; time++) {
+                        assertTrue(seen.add(time));
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(4 * 10000 * 4, seen.size());
+        assertEquals(lamportClock.getTime(), (long) seen.stream().max(Long::compare).get());
+    }
 }
@@ -0,0 +1,80 @@
+// Latency histogram in the style of HdrHistogram: values below 128 have their own
+// bucket, larger values share buckets 1/64 of their power of two wide, so every
+// recorded value is reported within about 1.6% while the counts stay a few KB.
+// Not thread-safe, give each thread its own histogram and add() them up.
+public class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 7;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT / 2;
+
+  private final long[] counts = new long[SUB_BUCKET_COUNT + (64 - SUB_BUCKET_BITS) * SUB_BUCKET_HALF];
+  private long totalCount;
+  private long max;
+  private double sum;
+
+  public void record(long value) {
+    if (value < 0) {
+      throw new IllegalArgumentException("Error 400: latency must not be negative.");
+    }
+    counts[indexOf(value)]++;
+    totalCount++;
+    max = Math.max(max, value);
+    sum += value;
+  }
+
+  public void add(LatencyHistogram other) {
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] += other.counts[i];
+    }
+    totalCount += other.totalCount;
+    max = Math.max(max, other.max);
+    sum += other.sum;
+  }
+
+  public long getTotalCount() {
+    return totalCount;
+  }
+
+  public long getMax() {
+    return max;
+  }
+
+  public double getMean() {
+    return totalCount == 0 ? 0 : sum / totalCount;
+  }
+
+  // Smallest bucket bound that at least percentile% of the values are at or below,
+  // 0 when nothing was recorded.
+  public long getValueAtPercentile(double percentile) {
+    if (totalCount == 0) {
+      return 0;
+    }
+    long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * totalCount));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= target) {
+        return Math.min(highestValueOf(i), max);
+      }
+    }
+    return max;
+  }
+
+  private static int indexOf(long value) {
+    if (value < SUB_BUCKET_COUNT) {
+      return (int) value;
+    }
+    int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+    int subBucket = (int) (value >>> shift);
+    return SUB_BUCKET_COUNT + (shift - 1) * SUB_BUCKET_HALF + (subBucket - SUB_BUCKET_HALF);
+  }
+
+  private static long highestValueOf(int index) {
+    if (index < SUB_BUCKET_COUNT) {
+      return index;
+    }
+    int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + 1;
+    long subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+    return ((subBucket + 1) << shift) - 1;
+  }
+}
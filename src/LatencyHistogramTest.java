@@ -0,0 +1,50 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTest {
+
+  @Test
+  public void testPercentiles_smallValuesAreExact() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int value = 1; value <= 100; value++) {
+      histogram.record(value);
+    }
+
+    assertEquals(100, histogram.getTotalCount());
+    assertEquals(50, histogram.getValueAtPercentile(50));
+    assertEquals(99, histogram.getValueAtPercentile(99));
+    assertEquals(100, histogram.getValueAtPercentile(100));
+    assertEquals(50.5, histogram.getMean(), 1e-9);
+  }
+
+  @Test
+  public void testPercentiles_largeValuesWithinPrecision() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (long value = 1; value <= 1_000_000; value++) {
+      histogram.record(value * 1000);
+    }
+
+    assertEquals(500_000_000, histogram.getValueAtPercentile(50), 500_000_000 * 0.016);
+    assertEquals(999_000_000, histogram.getValueAtPercentile(99.9), 999_000_000 * 0.016);
+    assertEquals(1_000_000_000, histogram.getMax());
+    assertEquals(1_000_000_000, histogram.getValueAtPercentile(100));
+  }
+
+  @Test
+  public void testAdd_mergesCounts() {
+    LatencyHistogram fast = new LatencyHistogram();
+    LatencyHistogram slow = new LatencyHistogram();
+    for (int i = 0; i < 99; i++) {
+      fast.record(10);
+    }
+    slow.record(5_000);
+
+    fast.add(slow);
+
+    assertEquals(100, fast.getTotalCount());
+    assertEquals(10, fast.getValueAtPercentile(99));
+    assertEquals(5_000, fast.getValueAtPercentile(99.9), 5_000 * 0.016);
+    assertEquals(0, new LatencyHistogram().getValueAtPercentile(99));
+  }
+}
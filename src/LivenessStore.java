@@ -0,0 +1,135 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Last time each content server was seen, kept in a small append-only file apart
+// from the snapshots. Heartbeats are only buffered in memory, flush() appends the
+// servers that changed plus a line recording that this server was alive, and the
+// file is rewritten once the appended lines outnumber the live entries.
+//
+// Lines: "+ <serverID> <lastSeen>", "- <serverID>" and "@ <aliveAt>".
+// Appends are not forced to disk, a crash loses at most one flush interval.
+public class LivenessStore {
+  private static final long REMOVED = -1;
+
+  private final Path file;
+  private final Map<String, Long> pending = new ConcurrentHashMap<>();
+  // Contents of the file as of the last flush, only used by the flushing thread.
+  private final Map<String, Long> persisted = new HashMap<>();
+  private long lastAlive;
+  private int appendedLines;
+
+  public LivenessStore(Path file) {
+    this.file = file;
+  }
+
+  // Reads the file, returns the last-seen time of every server that was not removed.
+  public synchronized Map<String, Long> load() throws IOException {
+    persisted.clear();
+    lastAlive = 0;
+    appendedLines = 0;
+    if (!Files.exists(file)) {
+      return new HashMap<>();
+    }
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        applyLine(line);
+        appendedLines++;
+      }
+    }
+    return new HashMap<>(persisted);
+  }
+
+  // Time of the last flush before the previous shutdown, 0 if unknown.
+  public synchronized long getLastAlive() {
+    return lastAlive;
+  }
+
+  public void recordHeartbeat(String serverID, long time) {
+    pending.put(serverID, time);
+  }
+
+  public void recordRemoval(String serverID) {
+    pending.put(serverID, REMOVED);
+  }
+
+  public synchronized void flush() throws IOException {
+    StringBuilder lines = new StringBuilder();
+    int count = 0;
+    for (String serverID : pending.keySet()) {
+      Long time = pending.remove(serverID);
+      if (time == null) {
+        continue;
+      }
+      if (time == REMOVED) {
+        if (persisted.remove(serverID) == null) {
+          continue;
+        }
+        lines.append("- ").append(serverID).append('\n');
+      } else {
+        persisted.put(serverID, time);
+        lines.append("+ ").append(serverID).append(' ').append(time).append('\n');
+      }
+      count++;
+    }
+    lastAlive = System.currentTimeMillis();
+    lines.append("@ ").append(lastAlive).append('\n');
+    count++;
+
+    if (appendedLines + count > Math.max(64, persisted.size() * 4)) {
+      rewrite();
+      return;
+    }
+    try (Writer writer = new OutputStreamWriter(Files.newOutputStream(file, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.APPEND), StandardCharsets.UTF_8)) {
+      writer.write(lines.toString());
+    }
+    appendedLines += count;
+  }
+
+  private void rewrite() throws IOException {
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      Writer writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel),
+          StandardCharsets.UTF_8));
+      for (Map.Entry<String, Long> entry : persisted.entrySet()) {
+        writer.write("+ " + entry.getKey() + " " + entry.getValue() + "\n");
+      }
+      writer.write("@ " + lastAlive + "\n");
+      writer.flush();
+      channel.force(true);
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    appendedLines = persisted.size() + 1;
+  }
+
+  // Malformed lines, such as a torn last line, are skipped.
+  private void applyLine(String line) {
+    try {
+      if (line.startsWith("+ ")) {
+        int separator = line.lastIndexOf(' ');
+        persisted.put(line.substring(2, separator), Long.parseLong(line.substring(separator + 1)));
+      } else if (line.startsWith("- ")) {
+        persisted.remove(line.substring(2));
+      } else if (line.startsWith("@ ")) {
+        lastAlive = Math.max(lastAlive, Long.parseLong(line.substring(2)));
+      }
+    } catch (NumberFormatException | IndexOutOfBoundsException e) {
+      AsyncLogger.warn("Liveness store: skipping malformed line in " + file.getFileName());
+    }
+  }
+}
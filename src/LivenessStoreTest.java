@@ -0,0 +1,74 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LivenessStoreTest {
+
+  @TempDir
+  Path dataDir;
+
+  private Path file;
+  private LivenessStore store;
+
+  @BeforeEach
+  public void setup() throws Exception {
+    file = dataDir.resolve("liveness.log");
+    store = new LivenessStore(file);
+    assertTrue(store.load().isEmpty());
+  }
+
+  @Test
+  public void testFlush_onlyBufferedHeartbeatsArePersisted() throws Exception {
+    store.recordHeartbeat("server1", 100);
+    assertTrue(new LivenessStore(file).load().isEmpty());
+
+    store.flush();
+
+    LivenessStore reloaded = new LivenessStore(file);
+    assertEquals(Map.of("server1", 100L), reloaded.load());
+    assertTrue(reloaded.getLastAlive() > 0);
+  }
+
+  @Test
+  public void testRecordRemoval() throws Exception {
+    store.recordHeartbeat("server1", 100);
+    store.recordHeartbeat("server2", 200);
+    store.flush();
+    store.recordRemoval("server1");
+    store.recordHeartbeat("server2", 300);
+    store.flush();
+
+    assertEquals(Map.of("server2", 300L), new LivenessStore(file).load());
+  }
+
+  @Test
+  public void testFlush_rewritesGrowingFile() throws Exception {
+    for (int i = 0; i < 500; i++) {
+      store.recordHeartbeat("server1", i);
+      store.flush();
+    }
+
+    assertTrue(Files.readAllLines(file).size() <= 64);
+    assertEquals(Map.of("server1", 499L), new LivenessStore(file).load());
+  }
+
+  @Test
+  public void testLoad_skipsTornLine() throws Exception {
+    store.recordHeartbeat("server1", 100);
+    store.flush();
+    Files.write(file, "+ server2 12".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    Files.write(file, "+ server3".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+    Map<String, Long> loaded = new LivenessStore(file).load();
+    assertEquals(100L, loaded.get("server1"));
+    assertFalse(loaded.containsKey("server3"));
+  }
+}
@@ -0,0 +1,303 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Drives an AggregationServer with simulated content servers, which PUT one station
+// each at a fixed interval, and GET clients, which read random stations of those.
+// Reports throughput and latency percentiles per request type, e.g.
+//   java LoadGenerator --start-server=true --content-servers=50 --clients=20 --duration-s=30
+// Options that are not the generator's own configure the in-process server, e.g.
+// --workers=64 or --transport=nio.
+//
+// Latency of a paced request is measured from the time it was due, not from when it
+// was sent, so a stalled server shows up in the percentiles instead of only delaying
+// the following requests.
+public class LoadGenerator {
+  private String host = "localhost";
+  private int port = 4567;
+  private boolean startServer = false;
+  private int contentServers = 10;
+  private int clients = 10;
+  private long pushIntervalMillis = 1000;
+  // 0 sends the next GET as soon as the previous response arrived.
+  private long getIntervalMillis = 0;
+  private int payloadFields = 17;
+  private boolean reuseConnections = true;
+  private int durationSeconds = 10;
+  private int warmupSeconds = 2;
+  private ServerConfig serverConfig = new ServerConfig();
+
+  // Latencies in microseconds of the requests sent after the warmup.
+  public static class Result {
+    private final LatencyHistogram puts = new LatencyHistogram();
+    private final LatencyHistogram gets = new LatencyHistogram();
+    private long putErrors;
+    private long getErrors;
+    private long measuredNanos;
+
+    public LatencyHistogram getPuts() {
+      return puts;
+    }
+
+    public LatencyHistogram getGets() {
+      return gets;
+    }
+
+    public long getPutErrors() {
+      return putErrors;
+    }
+
+    public long getGetErrors() {
+      return getErrors;
+    }
+
+    private void add(Result other) {
+      puts.add(other.puts);
+      gets.add(other.gets);
+      putErrors += other.putErrors;
+      getErrors += other.getErrors;
+    }
+
+    public String format() {
+      return formatLine("PUT", puts, putErrors) + formatLine("GET", gets, getErrors);
+    }
+
+    private String formatLine(String name, LatencyHistogram histogram, long errors) {
+      double seconds = measuredNanos / 1e9;
+      return String.format("%s: %d requests, %d errors, %.1f req/s, latency ms p50 %.3f p99 %.3f p99.9 %.3f max %.3f%n",
+          name, histogram.getTotalCount(), errors, seconds > 0 ? histogram.getTotalCount() / seconds : 0,
+          histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(99) / 1000.0,
+          histogram.getValueAtPercentile(99.9) / 1000.0, histogram.getMax() / 1000.0);
+    }
+  }
+
+  public static LoadGenerator fromArgs(String[] args) {
+    LoadGenerator generator = new LoadGenerator();
+    List<String> serverArgs = new ArrayList<>();
+    for (String arg : args) {
+      if (!arg.startsWith("--")) {
+        throw new IllegalArgumentException("Invalid option format: " + arg);
+      }
+      String[] parts = arg.substring(2).split("=", 2);
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Invalid option format: " + arg);
+      }
+      if (!generator.applyOption(parts[0].trim(), parts[1].trim())) {
+        serverArgs.add(arg);
+      }
+    }
+    generator.serverConfig = ServerConfig.fromArgs(serverArgs.toArray(new String[0]));
+    return generator;
+  }
+
+  // False for options that are not the generator's own.
+  private boolean applyOption(String name, String value) {
+    switch (name) {
+      case "host":
+        host = value;
+        break;
+      case "port":
+        port = Integer.parseInt(value);
+        break;
+      case "start-server":
+        startServer = Boolean.parseBoolean(value);
+        break;
+      case "content-servers":
+        contentServers = nonNegative(name, Integer.parseInt(value));
+        break;
+      case "clients":
+        clients = nonNegative(name, Integer.parseInt(value));
+        break;
+      case "push-interval-ms":
+        pushIntervalMillis = nonNegative(name, Long.parseLong(value));
+        break;
+      case "get-interval-ms":
+        getIntervalMillis = nonNegative(name, Long.parseLong(value));
+        break;
+      case "payload-fields":
+        payloadFields = nonNegative(name, Integer.parseInt(value));
+        break;
+      case "reuse-connections":
+        reuseConnections = Boolean.parseBoolean(value);
+        break;
+      case "duration-s":
+        durationSeconds = nonNegative(name, Integer.parseInt(value));
+        break;
+      case "warmup-s":
+        warmupSeconds = nonNegative(name, Integer.parseInt(value));
+        break;
+      default:
+        return false;
+    }
+    return true;
+  }
+
+  private static <T extends Number> T nonNegative(String name, T value) {
+    if (value.longValue() < 0) {
+      throw new IllegalArgumentException("Error 400: --" + name + " must not be negative.");
+    }
+    return value;
+  }
+
+  // Output of the clients and of an in-process server is discarded while it runs.
+  public Result run() throws Exception {
+    if (clients > 0 && contentServers == 0) {
+      // GET clients read the stations of the content servers.
+      throw new IllegalArgumentException("Error 400: --clients needs at least one content server.");
+    }
+    PrintStream out = System.out;
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    AggregationServer server = null;
+    ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, contentServers + clients));
+    try {
+      if (startServer) {
+        AggregationServer started = new AggregationServer(false,
+            serverConfig.setDataDirectory(Files.createTempDirectory("load").toString()));
+        server = started;
+        new Thread(() -> started.start(port), "load-server").start();
+        // Let the server bind before the clients connect.
+        Thread.sleep(1000);
+      }
+
+      long start = System.nanoTime();
+      long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+      long end = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+      List<Future<Result>> results = new ArrayList<>();
+      for (int i = 0; i < contentServers; i++) {
+        int index = i;
+        results.add(workers.submit(() -> runContentServer(index, start, measureFrom, end)));
+      }
+      for (int i = 0; i < clients; i++) {
+        results.add(workers.submit(() -> runClient(start, measureFrom, end)));
+      }
+
+      Result total = new Result();
+      for (Future<Result> result : results) {
+        total.add(result.get());
+      }
+      total.measuredNanos = end - measureFrom;
+      return total;
+    } finally {
+      workers.shutdownNow();
+      if (server != null) {
+        server.terminate();
+      }
+      AsyncLogger.flush();
+      System.setOut(out);
+    }
+  }
+
+  private Result runContentServer(int index, long start, long measureFrom, long end) {
+    Result result = new Result();
+    SocketNetworkHandler handler = new SocketNetworkHandler(false);
+    LamportClock clock = new LamportClock();
+    String serverID = "load-content-" + index;
+    long interval = TimeUnit.MILLISECONDS.toNanos(pushIntervalMillis);
+    // Spread the first pushes over one interval.
+    long due = start + (contentServers > 1 ? interval * index / contentServers : 0);
+    int sequence = 0;
+    try {
+      while (due < end && !Thread.currentThread().isInterrupted()) {
+        waitUntil(due);
+        String body = payload(stationOf(index), sequence++);
+        String request = "PUT /weather.json HTTP/1.1\r\n"
+            + "ServerID: " + serverID + "\r\n"
+            + "LamportClock: " + clock.send() + "\r\n"
+            + "Connection: " + (reuseConnections ? "keep-alive" : "close") + "\r\n"
+            + "Content-Type: application/json\r\n"
+            + "Content-Length: " + body.getBytes(StandardCharsets.UTF_8).length + "\r\n\r\n"
+            + body;
+        boolean ok = isSuccess(exchange(handler, request));
+        long done = System.nanoTime();
+        if (due >= measureFrom) {
+          if (ok) {
+            result.puts.record(TimeUnit.NANOSECONDS.toMicros(done - due));
+          } else {
+            result.putErrors++;
+          }
+        }
+        due = interval > 0 ? due + interval : done;
+      }
+    } finally {
+      handler.closeResources();
+    }
+    return result;
+  }
+
+  private Result runClient(long start, long measureFrom, long end) {
+    Result result = new Result();
+    SocketNetworkHandler handler = new SocketNetworkHandler(false);
+    LamportClock clock = new LamportClock();
+    long interval = TimeUnit.MILLISECONDS.toNanos(getIntervalMillis);
+    long due = start;
+    try {
+      while (due < end && !Thread.currentThread().isInterrupted()) {
+        waitUntil(due);
+        String request = "GET /weather.json HTTP/1.1\r\n"
+            + "StationID: " + stationOf(ThreadLocalRandom.current().nextInt(contentServers)) + "\r\n"
+            + "LamportClock: " + clock.send() + "\r\n"
+            + "Connection: " + (reuseConnections ? "keep-alive" : "close") + "\r\n\r\n";
+        boolean ok = isSuccess(exchange(handler, request));
+        long done = System.nanoTime();
+        if (due >= measureFrom) {
+          if (ok) {
+            result.gets.record(TimeUnit.NANOSECONDS.toMicros(done - due));
+          } else {
+            result.getErrors++;
+          }
+        }
+        due = interval > 0 ? due + interval : done;
+      }
+    } finally {
+      handler.closeResources();
+    }
+    return result;
+  }
+
+  private static void waitUntil(long due) {
+    long now;
+    while ((now = System.nanoTime()) < due) {
+      LockSupport.parkNanos(due - now);
+    }
+  }
+
+  private String exchange(SocketNetworkHandler handler, String request) {
+    if (handler.initializeClientSocket(host, port) == -1) {
+      return null;
+    }
+    String response = handler.receiveDataFromServer(host, port, request);
+    if (!reuseConnections || NetworkHandler.closesConnection(response)) {
+      handler.closeResources();
+    }
+    return response;
+  }
+
+  private static boolean isSuccess(String response) {
+    return response != null && response.startsWith("HTTP/1.1 2");
+  }
+
+  private static String stationOf(int index) {
+    return "LOAD" + index;
+  }
+
+  private String payload(String stationID, int sequence) {
+    StringBuilder body = new StringBuilder("{\"id\":\"").append(stationID).append('"');
+    for (int field = 1; field < payloadFields; field++) {
+      body.append(",\"field_").append(field).append("\":\"").append((sequence + field) % 1000 / 10.0).append('"');
+    }
+    return body.append('}').toString();
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.out.print(fromArgs(args).run().format());
+  }
+}
@@ -0,0 +1,32 @@
+import org.junit.jupiter.api.Test;
+
+import java.net.ServerSocket;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoadGeneratorTest {
+
+  @Test
+  public void testRun_againstLocalServer() throws Exception {
+    int port;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      port = socket.getLocalPort();
+    }
+
+    LoadGenerator.Result result = LoadGenerator.fromArgs(new String[] {
+        "--start-server=true", "--port=" + port, "--content-servers=3", "--clients=2",
+        "--push-interval-ms=100", "--get-interval-ms=10", "--duration-s=1", "--warmup-s=0"}).run();
+
+    assertTrue(result.getPuts().getTotalCount() >= 10);
+    assertTrue(result.getGets().getTotalCount() >= 50);
+    assertEquals(0, result.getPutErrors());
+    assertEquals(0, result.getGetErrors());
+    assertTrue(result.format().contains("p99.9"));
+  }
+
+  @Test
+  public void testFromArgs_rejectsUnknownOptions() {
+    assertThrows(IllegalArgumentException.class, () -> LoadGenerator.fromArgs(new String[] {"--rate=5"}));
+    assertThrows(IllegalArgumentException.class, () -> LoadGenerator.fromArgs(new String[] {"--clients=-1"}));
+  }
+}
@@ -1,24 +1,34 @@
 import java.net.Socket;
+import java.util.List;
 
+// Client side of the protocol and the parts every server transport shares. How a
+// server takes in connections is up to BlockingServerHandler or EventLoopServerHandler.
 public interface NetworkHandler {
 
     void initializeServer(int portNumber);
 
-    Socket acceptIncomingClient();
-
-    String waitForDataFromClient(Socket clientSocket);
-
-    void sendResponseToClient(String response, Socket clientSocket);
-
     String sendDataToServer(String serverName, int portNumber, String data);
 
-    int initializeClientSocket(String serverName, int portNumber);
+    long initializeClientSocket(String serverName, int portNumber);
 
     String receiveDataFromServer(String serverName, int portNumber, String request);
 
+    // Sends all requests on the current connection before reading any response.
+    List<String> sendPipelinedRequests(String serverName, int portNumber, List<String> requests);
+
     void closeResources();
 
     String handleTestRequest(String serverName, int portNumber, String request);
 
     public boolean checkClientSocketIsClosed();
+
+    // True when the response tells the peer that the connection will be closed.
+    static boolean closesConnection(String response) {
+        if (response == null) {
+            return true;
+        }
+        int headerEnd = response.indexOf("\r\n\r\n");
+        String head = headerEnd == -1 ? response : response.substring(0, headerEnd);
+        return head.contains("\r\nConnection: close");
+    }
 }
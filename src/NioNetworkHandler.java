@@ -0,0 +1,311 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+// Selector based server transport: one thread multiplexes accepts, reads and writes
+// for every connection, complete requests are handed to the worker pool.
+// Client-side operations are delegated to a blocking SocketNetworkHandler.
+public class NioNetworkHandler implements EventLoopServerHandler {
+  private static final int INITIAL_BUFFER_SIZE = 4096;
+  // Largest request the parser accepts, the read buffer never grows past it.
+  private static final int MAX_REQUEST_SIZE =
+      HttpRequestParser.DEFAULT_MAX_HEADER_BYTES + HttpRequestParser.DEFAULT_MAX_BODY_BYTES;
+
+  private final SocketNetworkHandler clientHandler;
+  private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+  private final long idleTimeoutMillis;
+  private Selector selector;
+  private ServerSocketChannel serverChannel;
+  private RequestProcessor processor;
+  private ExecutorService workers;
+  private long lastIdleCheck;
+
+  public NioNetworkHandler(boolean isForTested) {
+    this(isForTested, 5000);
+  }
+
+  public NioNetworkHandler(boolean isForTested, long idleTimeoutMillis) {
+    this.clientHandler = new SocketNetworkHandler(isForTested);
+    this.idleTimeoutMillis = idleTimeoutMillis;
+  }
+
+  @Override
+  public void initializeServer(int portNumber) {
+    try {
+      selector = Selector.open();
+      serverChannel = ServerSocketChannel.open();
+      serverChannel.configureBlocking(false);
+      serverChannel.bind(new InetSocketAddress(portNumber));
+      serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+      AsyncLogger.info("Server listening on port " + portNumber + " (nio)");
+    } catch (IOException e) {
+      AsyncLogger.error("Could not listen on port " + portNumber, e);
+    }
+  }
+
+  @Override
+  public void serve(RequestProcessor processor, ExecutorService workers) {
+    this.processor = processor;
+    this.workers = workers;
+    while (processor.isRunning() && selector != null && selector.isOpen()) {
+      try {
+        selector.select(100);
+        flushPendingWrites();
+        closeIdleConnections();
+
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          try {
+            if (key.isAcceptable()) {
+              accept();
+              continue;
+            }
+            if (key.isReadable()) {
+              read(key);
+            }
+            if (key.isValid() && key.isWritable()) {
+              write(key);
+            }
+          } catch (IOException e) {
+            close(key);
+          }
+        }
+      } catch (IOException | ClosedSelectorException e) {
+        if (processor.isRunning()) {
+          AsyncLogger.error("Event loop failed", e);
+        }
+        break;
+      }
+    }
+  }
+
+  private void accept() throws IOException {
+    SocketChannel channel = serverChannel.accept();
+    if (channel == null) {
+      return;
+    }
+    channel.configureBlocking(false);
+    SelectionKey key = channel.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    Connection connection = new Connection(channel, key);
+    key.attach(connection);
+    // The blank line mirrors the println used by the blocking handler, clients skip it.
+    connection.writeQueue.add(encode(processor.greeting() + "\r\n\r\n"));
+  }
+
+  private void read(SelectionKey key) throws IOException {
+    Connection connection = (Connection) key.attachment();
+    int read = connection.channel.read(connection.writableBuffer());
+    if (read == -1) {
+      close(key);
+      return;
+    }
+    connection.lastActivity = System.currentTimeMillis();
+    dispatchNext(connection);
+  }
+
+  // Only one request per connection is in flight at a time, pipelined requests wait
+  // in the read buffer so their responses are written in request order.
+  private void dispatchNext(Connection connection) {
+    if (connection.busy || connection.closeAfterWrite) {
+      return;
+    }
+    HttpRequest request;
+    try {
+      request = connection.nextRequest();
+    } catch (HttpParseException e) {
+      connection.writeQueue.add(encode(processor.errorResponse(e.getStatus())));
+      connection.closeAfterWrite = true;
+      connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+      return;
+    }
+    if (request == null) {
+      return;
+    }
+    connection.busy = true;
+    // Nothing is read until the response is queued, so a client cannot fill the
+    // buffer while the parser is not looking at it.
+    connection.key.interestOps(connection.key.interestOps() & ~SelectionKey.OP_READ);
+    workers.execute(() -> {
+      try {
+        String response = processor.process(request);
+        connection.writeQueue.add(encode(response));
+        connection.closeAfterWrite = NetworkHandler.closesConnection(response);
+      } catch (RuntimeException e) {
+        AsyncLogger.error("Could not process a request", e);
+        connection.writeQueue.add(encode(processor.errorResponse("500 Internal Server Error")));
+        connection.closeAfterWrite = true;
+      } finally {
+        // Idle connections are only closed when not busy, so this must always run.
+        connection.busy = false;
+        pendingWrites.add(connection);
+        selector.wakeup();
+      }
+    });
+  }
+
+  private void write(SelectionKey key) throws IOException {
+    Connection connection = (Connection) key.attachment();
+    ByteBuffer head;
+    while ((head = connection.writeQueue.peek()) != null) {
+      connection.channel.write(head);
+      if (head.hasRemaining()) {
+        return;
+      }
+      connection.writeQueue.poll();
+    }
+    connection.lastActivity = System.currentTimeMillis();
+    if (connection.closeAfterWrite) {
+      close(key);
+    } else {
+      key.interestOps(connection.busy ? 0 : SelectionKey.OP_READ);
+      dispatchNext(connection);
+    }
+  }
+
+  private void closeIdleConnections() {
+    long now = System.currentTimeMillis();
+    if (now - lastIdleCheck < 1000) {
+      return;
+    }
+    lastIdleCheck = now;
+    for (SelectionKey key : selector.keys()) {
+      Connection connection = (Connection) key.attachment();
+      if (connection != null && key.isValid() && !connection.busy && connection.writeQueue.isEmpty()
+          && now - connection.lastActivity > idleTimeoutMillis) {
+        close(key);
+      }
+    }
+  }
+
+  // Interest ops may only be changed safely from the selector thread.
+  private void flushPendingWrites() {
+    Connection connection;
+    while ((connection = pendingWrites.poll()) != null) {
+      if (connection.key.isValid()) {
+        int ops = connection.closeAfterWrite ? SelectionKey.OP_WRITE : SelectionKey.OP_WRITE | SelectionKey.OP_READ;
+        connection.key.interestOps(connection.key.interestOps() | ops);
+      }
+    }
+  }
+
+  private void close(SelectionKey key) {
+    key.cancel();
+    try {
+      key.channel().close();
+    } catch (IOException e) {
+      AsyncLogger.debug("Could not close a connection: " + e);
+    }
+  }
+
+  private static ByteBuffer encode(String text) {
+    return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static class Connection {
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private volatile boolean closeAfterWrite;
+    private volatile boolean busy;
+    private long lastActivity = System.currentTimeMillis();
+    private final HttpRequestParser parser = new HttpRequestParser();
+
+    Connection(SocketChannel channel, SelectionKey key) {
+      this.channel = channel;
+      this.key = key;
+    }
+
+    ByteBuffer writableBuffer() throws IOException {
+      if (!readBuffer.hasRemaining()) {
+        // The parser rejects oversize requests first, this only stops input it has not seen.
+        if (readBuffer.capacity() >= MAX_REQUEST_SIZE) {
+          throw new IOException("Error 413: Request too large.");
+        }
+        ByteBuffer grown = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, MAX_REQUEST_SIZE));
+        readBuffer.flip();
+        grown.put(readBuffer);
+        readBuffer = grown;
+      }
+      return readBuffer;
+    }
+
+    // Returns the next complete request with its body copied out of the read buffer,
+    // or null if more input is needed.
+    HttpRequest nextRequest() {
+      HttpRequest request = parser.parse(readBuffer.array(), 0, readBuffer.position());
+      if (request == null) {
+        return null;
+      }
+      request.detach();
+      readBuffer.flip();
+      readBuffer.position(request.getConsumedBytes());
+      readBuffer.compact();
+      return request;
+    }
+  }
+
+  @Override
+  public String sendDataToServer(String serverName, int portNumber, String data) {
+    return clientHandler.sendDataToServer(serverName, portNumber, data);
+  }
+
+  @Override
+  public long initializeClientSocket(String serverName, int portNumber) {
+    return clientHandler.initializeClientSocket(serverName, portNumber);
+  }
+
+  @Override
+  public String receiveDataFromServer(String serverName, int portNumber, String request) {
+    return clientHandler.receiveDataFromServer(serverName, portNumber, request);
+  }
+
+  @Override
+  public List<String> sendPipelinedRequests(String serverName, int portNumber, List<String> requests) {
+    return clientHandler.sendPipelinedRequests(serverName, portNumber, requests);
+  }
+
+  @Override
+  public void closeResources() {
+    try {
+      if (selector != null && selector.isOpen()) {
+        for (SelectionKey key : selector.keys()) {
+          key.channel().close();
+        }
+        selector.close();
+      }
+      if (serverChannel != null) {
+        serverChannel.close();
+      }
+    } catch (IOException e) {
+      AsyncLogger.debug("Could not close the server channel: " + e);
+    }
+    clientHandler.closeResources();
+  }
+
+  @Override
+  public String handleTestRequest(String serverName, int portNumber, String request) {
+    return clientHandler.handleTestRequest(serverName, portNumber, request);
+  }
+
+  @Override
+  public boolean checkClientSocketIsClosed() {
+    return clientHandler.checkClientSocketIsClosed();
+  }
+}
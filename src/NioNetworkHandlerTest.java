@@ -0,0 +1,201 @@
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import com.google.gson.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class NioNetworkHandlerTest {
+
+  private AggregationServer aggregationServer;
+  private int port = 4568;
+
+  @TempDir
+  Path dataDir;
+
+  @BeforeEach
+  public void setup() throws InterruptedException {
+    aggregationServer = new AggregationServer(false,
+        new ServerConfig().setTransport(ServerConfig.Transport.NIO).setDataDirectory(dataDir.toString()));
+    new Thread(() -> aggregationServer.start(port)).start();
+    Thread.sleep(500);
+  }
+
+  @AfterEach
+  public void teardown() throws InterruptedException {
+    aggregationServer.terminate();
+    Thread.sleep(500);
+  }
+
+  @Test
+  public void testNetworkHandler_runsItsOwnEventLoop() {
+    assertTrue(aggregationServer.getNetworkHandler() instanceof EventLoopServerHandler);
+  }
+
+  @Test
+  public void testPutAndGetOverNio() throws Exception {
+    ContentServer contentServer = new ContentServer(false);
+    contentServer.setWeatherData(JSONHandler.parseTextToJSON(JSONHandler.readFile("src/weather_test.txt")));
+    contentServer.processPush("localhost", port);
+    contentServer.terminateResources();
+
+    GETClient client = new GETClient(false);
+    JsonObject response = client.getData("localhost", port, "IDS60901");
+    client.getNetworkHandler().closeResources();
+
+    assertNotNull(response);
+    assertEquals("IDS60901", response.get("id").getAsString());
+  }
+
+  @Test
+  public void testPipelinedRequestsOverNio() throws Exception {
+    ContentServer contentServer = new ContentServer(false);
+    contentServer.setWeatherData(JSONHandler.parseTextToJSON(JSONHandler.readFile("src/weather_test.txt")));
+    contentServer.processPush("localhost", port);
+    // Second push reuses the kept-alive connection.
+    contentServer.processPush("localhost", port);
+    assertFalse(contentServer.getNetworkHandler().checkClientSocketIsClosed());
+    contentServer.terminateResources();
+
+    GETClient client = new GETClient(false);
+    List<JsonObject> responses = client.getPipelinedData("localhost", port,
+        Arrays.asList("IDS60901", "unknown", "IDS60901"));
+    client.getNetworkHandler().closeResources();
+
+    assertEquals("IDS60901", responses.get(0).get("id").getAsString());
+    assertNull(responses.get(1));
+    assertEquals("IDS60901", responses.get(2).get("id").getAsString());
+  }
+
+  @Test
+  public void testRequestSplitAcrossWrites() throws Exception {
+    String body = "{\"id\":\"IDS11111\",\"air_temp\":\"10.5\"}";
+    String request = "PUT /weather.json HTTP/1.1\r\nServerID: split\r\nLamportClock: 1\r\n"
+        + "Content-Length: " + body.length() + "\r\n\r\n" + body;
+    byte[] bytes = request.getBytes(StandardCharsets.UTF_8);
+
+    try (Socket socket = new Socket("localhost", port)) {
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+      assertTrue(in.readLine().startsWith("LamportClock: "));
+
+      OutputStream out = socket.getOutputStream();
+      for (int i = 0; i < bytes.length; i += 7) {
+        out.write(bytes, i, Math.min(7, bytes.length - i));
+        out.flush();
+        Thread.sleep(5);
+      }
+
+      String statusLine = in.readLine();
+      while (statusLine != null && statusLine.isEmpty()) {
+        statusLine = in.readLine();
+      }
+      assertEquals("HTTP/1.1 201 HTTP_CREATED", statusLine);
+    }
+    assertNotNull(aggregationServer.getWeatherData("IDS11111"));
+  }
+
+  @Test
+  public void testFailingRequestGets500AndTheConnectionIsClosed() throws Exception {
+    int failingPort = port + 2;
+    NioNetworkHandler handler = new NioNetworkHandler(false);
+    handler.initializeServer(failingPort);
+    ExecutorService workers = Executors.newSingleThreadExecutor();
+    Thread loop = new Thread(() -> handler.serve(new RequestProcessor() {
+      @Override
+      public String greeting() {
+        return "LamportClock: 0";
+      }
+
+      @Override
+      public String process(HttpRequest request) {
+        throw new IllegalStateException("processing failed");
+      }
+
+      @Override
+      public String errorResponse(String status) {
+        return "HTTP/1.1 " + status + "\r\nConnection: close\r\n\r\n";
+      }
+
+      @Override
+      public boolean isRunning() {
+        return !workers.isShutdown();
+      }
+    }, workers));
+    loop.start();
+    try (Socket socket = new Socket("localhost", failingPort)) {
+      socket.setSoTimeout(5000);
+      socket.getOutputStream().write("GET /weather.json HTTP/1.1\r\nLamportClock: 1\r\n\r\n"
+          .getBytes(StandardCharsets.UTF_8));
+      // Read to the end, so this also fails if the connection is left open.
+      String received = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+      assertTrue(received.contains("HTTP/1.1 500 Internal Server Error\r\n"));
+    } finally {
+      workers.shutdown();
+      handler.closeResources();
+      loop.join(1000);
+    }
+  }
+
+  @Test
+  public void testInputBehindAWaitingRequestIsNotBuffered() throws Exception {
+    int pollPort = port + 3;
+    AggregationServer polled = new AggregationServer(false, new ServerConfig()
+        .setTransport(ServerConfig.Transport.NIO)
+        .setLongPollTimeoutMillis(1000)
+        .setDataDirectory(dataDir.resolve("poll").toString()));
+    new Thread(() -> polled.start(pollPort)).start();
+    Thread.sleep(500);
+    Socket socket = new Socket("localhost", pollPort);
+    Thread flood = new Thread(() -> {
+      byte[] junk = new byte[1 << 16];
+      Arrays.fill(junk, (byte) 'x');
+      try {
+        OutputStream out = socket.getOutputStream();
+        out.write("GET /weather.json?subscribe=IDS1 HTTP/1.1\r\nLamportClock: 1\r\n\r\n"
+            .getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < 256; i++) {
+          out.write(junk);
+        }
+      } catch (Exception e) {
+        // The server closed the connection.
+      }
+    });
+    try {
+      flood.start();
+      socket.setSoTimeout(10000);
+      // The subscription times out, then the junk is parsed and rejected.
+      String received = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+      assertTrue(received.contains("HTTP/1.1 204 No Content\r\n"));
+      assertTrue(received.contains("Connection: close\r\n"));
+
+      GETClient client = new GETClient(false);
+      client.getData("localhost", pollPort, "IDS1");
+      assertFalse(client.getNetworkHandler().checkClientSocketIsClosed());
+      client.getNetworkHandler().closeResources();
+    } finally {
+      socket.close();
+      flood.join(5000);
+      polled.terminate();
+    }
+  }
+
+  @Test
+  public void testMalformedLamportClockGets400OverNio() throws Exception {
+    try (Socket socket = new Socket("localhost", port)) {
+      socket.setSoTimeout(5000);
+      socket.getOutputStream().write(("GET /weather.json HTTP/1.1\r\nLamportClock: abc\r\n"
+          + "Connection: close\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+      String received = new String(socket.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+      assertTrue(received.contains("HTTP/1.1 400 Bad Request\r\n"));
+    }
+  }
+}
@@ -0,0 +1,67 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Token bucket per key. A key may send ratePerSecond requests a second on average and
+// up to ratePerSecond at once after being idle. Buckets that have filled up again
+// hold no state worth keeping and are dropped by evictIdle.
+public class RateLimiter {
+  private final double ratePerSecond;
+  private final long nanosPerToken;
+  private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+  private static final class Bucket {
+    private double tokens;
+    private long updatedAt;
+
+    Bucket(double tokens, long updatedAt) {
+      this.tokens = tokens;
+      this.updatedAt = updatedAt;
+    }
+
+    // Caller holds the bucket's monitor.
+    void refill(long now, double ratePerSecond) {
+      // now was read before taking the monitor and may be behind another thread's.
+      if (now > updatedAt) {
+        tokens = Math.min(ratePerSecond, tokens + (now - updatedAt) / 1e9 * ratePerSecond);
+        updatedAt = now;
+      }
+    }
+  }
+
+  public RateLimiter(int ratePerSecond) {
+    if (ratePerSecond <= 0) {
+      throw new IllegalArgumentException("Error 400: ratePerSecond must be positive.");
+    }
+    this.ratePerSecond = ratePerSecond;
+    this.nanosPerToken = TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+  }
+
+  // 0 if the request may go ahead, otherwise how many nanoseconds until it would.
+  public long tryAcquire(String key, long now) {
+    Bucket bucket = buckets.computeIfAbsent(key, k -> new Bucket(ratePerSecond, now));
+    synchronized (bucket) {
+      bucket.refill(now, ratePerSecond);
+      if (bucket.tokens >= 1) {
+        bucket.tokens--;
+        return 0;
+      }
+      return Math.max(1, (long) ((1 - bucket.tokens) * nanosPerToken));
+    }
+  }
+
+  // A request racing with the removal may take a token from the dropped bucket, which
+  // was full, so at most one extra request gets through.
+  public void evictIdle(long now) {
+    buckets.values().removeIf(bucket -> {
+      synchronized (bucket) {
+        bucket.refill(now, ratePerSecond);
+        return bucket.tokens >= ratePerSecond;
+      }
+    });
+  }
+
+  int size() {
+    return buckets.size();
+  }
+}
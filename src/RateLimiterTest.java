@@ -0,0 +1,46 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RateLimiterTest {
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  @Test
+  public void testTryAcquire_allowsBurstThenWaitsForRefill() {
+    RateLimiter limiter = new RateLimiter(2);
+    long now = 1000 * SECOND;
+
+    assertEquals(0, limiter.tryAcquire("server1", now));
+    assertEquals(0, limiter.tryAcquire("server1", now));
+    long wait = limiter.tryAcquire("server1", now);
+    assertEquals(SECOND / 2, wait, SECOND / 100);
+
+    assertEquals(0, limiter.tryAcquire("server1", now + SECOND / 2));
+    assertTrue(limiter.tryAcquire("server1", now + SECOND / 2) > 0);
+  }
+
+  @Test
+  public void testTryAcquire_keysAreIndependent() {
+    RateLimiter limiter = new RateLimiter(1);
+    long now = 1000 * SECOND;
+
+    assertEquals(0, limiter.tryAcquire("server1", now));
+    assertTrue(limiter.tryAcquire("server1", now) > 0);
+    assertEquals(0, limiter.tryAcquire("server2", now));
+  }
+
+  @Test
+  public void testEvictIdle_dropsOnlyRefilledBuckets() {
+    RateLimiter limiter = new RateLimiter(10);
+    long now = 1000 * SECOND;
+    limiter.tryAcquire("idle", now);
+    limiter.tryAcquire("busy", now + SECOND);
+
+    limiter.evictIdle(now + SECOND);
+
+    assertEquals(1, limiter.size());
+    assertTrue(limiter.tryAcquire("busy", now + SECOND) == 0);
+  }
+}
@@ -0,0 +1,13 @@
+// Callbacks used by event-driven NetworkHandlers that own their accept and read loops.
+public interface RequestProcessor {
+
+  // Line sent to every client as soon as its connection is accepted.
+  String greeting();
+
+  String process(HttpRequest request);
+
+  // Response for a request that could not be parsed, the connection is closed after it.
+  String errorResponse(String status);
+
+  boolean isRunning();
+}
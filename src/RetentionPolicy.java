@@ -0,0 +1,43 @@
+// Limits how much history is kept per station. A limit of 0 disables that rule.
+// The newest reading of a station is always kept, dropping whole stations is left
+// to the stale-server cleanup.
+public class RetentionPolicy {
+  public static final RetentionPolicy UNBOUNDED = new RetentionPolicy(0, 0, 0);
+
+  private final int maxReadings;
+  private final long maxAgeMillis;
+  private final long maxLamportSpan;
+
+  public RetentionPolicy(int maxReadings, long maxAgeMillis, long maxLamportSpan) {
+    if (maxReadings < 0 || maxAgeMillis < 0 || maxLamportSpan < 0) {
+      throw new IllegalArgumentException("Error 400: retention limits must not be negative.");
+    }
+    this.maxReadings = maxReadings;
+    this.maxAgeMillis = maxAgeMillis;
+    this.maxLamportSpan = maxLamportSpan;
+  }
+
+  public int getMaxReadings() {
+    return maxReadings;
+  }
+
+  public long getMaxAgeMillis() {
+    return maxAgeMillis;
+  }
+
+  public long getMaxLamportSpan() {
+    return maxLamportSpan;
+  }
+
+  public boolean isUnbounded() {
+    return maxReadings == 0 && maxAgeMillis == 0 && maxLamportSpan == 0;
+  }
+
+  // True if reading falls outside the age or Lamport horizon relative to the newest reading.
+  public boolean isExpired(WeatherData reading, WeatherData newest, long now) {
+    if (maxLamportSpan > 0 && newest.getTime() - reading.getTime() > maxLamportSpan) {
+      return true;
+    }
+    return maxAgeMillis > 0 && reading.getReceivedAt() > 0 && now - reading.getReceivedAt() > maxAgeMillis;
+  }
+}
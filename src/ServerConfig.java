@@ -0,0 +1,310 @@
+public class ServerConfig {
+  public enum WorkerMode {
+    // Fixed number of platform threads shared by all connections.
+    FIXED_POOL,
+    // One thread per connection (virtual threads when the JDK provides them).
+    PER_CONNECTION
+  }
+
+  public enum Transport {
+    // Blocking ServerSocket with an accept thread (SocketNetworkHandler).
+    BLOCKING,
+    // Selector based non-blocking channels (NioNetworkHandler).
+    NIO
+  }
+
+  public enum SnapshotFormat {
+    // data.json, readable and kept as the export format.
+    JSON,
+    // data.bin (BinarySnapshot), memory-mapped on startup.
+    BINARY
+  }
+
+  // What the blocking transport does when its admission queue is full. The NIO
+  // transport has no such queue and ignores the policy.
+  public enum OverloadPolicy {
+    // New connections get 503 with Retry-After.
+    REJECT,
+    // The longest waiting connection gets the 503 and the new one is queued.
+    SHED_OLDEST,
+    // As REJECT, and while the queue is over half full GETs get a 503 unprocessed.
+    PREFER_PUT,
+    // As REJECT, and while the queue is over half full PUTs get a 503 unprocessed.
+    PREFER_GET
+  }
+
+  private WorkerMode workerMode = WorkerMode.FIXED_POOL;
+  private Transport transport = Transport.BLOCKING;
+  private int workerThreads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+  private int keepAliveTimeoutMillis = 5000;
+  private int historyDepth = 50;
+  private long historyMaxAgeMillis = 0;
+  private long historyLamportSpan = 0;
+  private String dataDirectory = "src";
+  private SnapshotFormat snapshotFormat = SnapshotFormat.JSON;
+  private int longPollTimeoutMillis = 25000;
+  private AsyncLogger.Level logLevel = AsyncLogger.getLevel();
+  private int queueCapacity = 1024;
+  private OverloadPolicy overloadPolicy = OverloadPolicy.REJECT;
+  // Requests per second per ServerID, 0 disables the limit.
+  private int rateLimit = 0;
+  // Subscription GETs waiting at once, 0 picks a default from the worker settings.
+  private int maxSubscriptions = 0;
+
+  public WorkerMode getWorkerMode() {
+    return workerMode;
+  }
+
+  public ServerConfig setWorkerMode(WorkerMode workerMode) {
+    if (workerMode == null) {
+      throw new IllegalArgumentException("Error 400: workerMode is null.");
+    }
+    this.workerMode = workerMode;
+    return this;
+  }
+
+  public int getWorkerThreads() {
+    return workerThreads;
+  }
+
+  public ServerConfig setWorkerThreads(int workerThreads) {
+    if (workerThreads <= 0) {
+      throw new IllegalArgumentException("Error 400: workerThreads must be positive.");
+    }
+    this.workerThreads = workerThreads;
+    return this;
+  }
+
+  public int getKeepAliveTimeoutMillis() {
+    return keepAliveTimeoutMillis;
+  }
+
+  // Idle time after which a kept-alive connection is closed by the server.
+  public ServerConfig setKeepAliveTimeoutMillis(int keepAliveTimeoutMillis) {
+    if (keepAliveTimeoutMillis <= 0) {
+      throw new IllegalArgumentException("Error 400: keepAliveTimeoutMillis must be positive.");
+    }
+    this.keepAliveTimeoutMillis = keepAliveTimeoutMillis;
+    return this;
+  }
+
+  // Readings kept per station, 0 keeps every reading.
+  public ServerConfig setHistoryDepth(int historyDepth) {
+    if (historyDepth < 0) {
+      throw new IllegalArgumentException("Error 400: historyDepth must not be negative.");
+    }
+    this.historyDepth = historyDepth;
+    return this;
+  }
+
+  // Readings older than this wall-clock age are dropped, 0 disables the rule.
+  public ServerConfig setHistoryMaxAgeMillis(long historyMaxAgeMillis) {
+    if (historyMaxAgeMillis < 0) {
+      throw new IllegalArgumentException("Error 400: historyMaxAgeMillis must not be negative.");
+    }
+    this.historyMaxAgeMillis = historyMaxAgeMillis;
+    return this;
+  }
+
+  // Readings more than this many Lamport ticks behind the newest are dropped, 0 disables the rule.
+  public ServerConfig setHistoryLamportSpan(long historyLamportSpan) {
+    if (historyLamportSpan < 0) {
+      throw new IllegalArgumentException("Error 400: historyLamportSpan must not be negative.");
+    }
+    this.historyLamportSpan = historyLamportSpan;
+    return this;
+  }
+
+  public RetentionPolicy getRetentionPolicy() {
+    return new RetentionPolicy(historyDepth, historyMaxAgeMillis, historyLamportSpan);
+  }
+
+  public Transport getTransport() {
+    return transport;
+  }
+
+  public ServerConfig setTransport(Transport transport) {
+    if (transport == null) {
+      throw new IllegalArgumentException("Error 400: transport is null.");
+    }
+    this.transport = transport;
+    return this;
+  }
+
+  public String getDataDirectory() {
+    return dataDirectory;
+  }
+
+  // Directory holding the snapshots and write-ahead log segments.
+  public ServerConfig setDataDirectory(String dataDirectory) {
+    if (dataDirectory == null || dataDirectory.isEmpty()) {
+      throw new IllegalArgumentException("Error 400: dataDirectory is empty.");
+    }
+    this.dataDirectory = dataDirectory;
+    return this;
+  }
+
+  public SnapshotFormat getSnapshotFormat() {
+    return snapshotFormat;
+  }
+
+  public ServerConfig setSnapshotFormat(SnapshotFormat snapshotFormat) {
+    if (snapshotFormat == null) {
+      throw new IllegalArgumentException("Error 400: snapshotFormat is null.");
+    }
+    this.snapshotFormat = snapshotFormat;
+    return this;
+  }
+
+  public int getLongPollTimeoutMillis() {
+    return longPollTimeoutMillis;
+  }
+
+  // Longest time a subscription GET waits for a new reading before answering 204.
+  public ServerConfig setLongPollTimeoutMillis(int longPollTimeoutMillis) {
+    if (longPollTimeoutMillis <= 0) {
+      throw new IllegalArgumentException("Error 400: longPollTimeoutMillis must be positive.");
+    }
+    this.longPollTimeoutMillis = longPollTimeoutMillis;
+    return this;
+  }
+
+  public AsyncLogger.Level getLogLevel() {
+    return logLevel;
+  }
+
+  // DEBUG also logs every connection and request.
+  public ServerConfig setLogLevel(AsyncLogger.Level logLevel) {
+    if (logLevel == null) {
+      throw new IllegalArgumentException("Error 400: logLevel is null.");
+    }
+    this.logLevel = logLevel;
+    return this;
+  }
+
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+  // Accepted connections that may wait for a worker. Only the blocking transport has
+  // this queue, with NIO the setting has no effect.
+  public ServerConfig setQueueCapacity(int queueCapacity) {
+    if (queueCapacity <= 0) {
+      throw new IllegalArgumentException("Error 400: queueCapacity must be positive.");
+    }
+    this.queueCapacity = queueCapacity;
+    return this;
+  }
+
+  public OverloadPolicy getOverloadPolicy() {
+    return overloadPolicy;
+  }
+
+  public ServerConfig setOverloadPolicy(OverloadPolicy overloadPolicy) {
+    if (overloadPolicy == null) {
+      throw new IllegalArgumentException("Error 400: overloadPolicy is null.");
+    }
+    this.overloadPolicy = overloadPolicy;
+    return this;
+  }
+
+  public int getRateLimit() {
+    return rateLimit;
+  }
+
+  // Requests per second each ServerID may send, with bursts of up to as many; the
+  // rest are answered 429. 0 disables the limit.
+  public ServerConfig setRateLimit(int rateLimit) {
+    if (rateLimit < 0) {
+      throw new IllegalArgumentException("Error 400: rateLimit must not be negative.");
+    }
+    this.rateLimit = rateLimit;
+    return this;
+  }
+
+  // A waiting subscription holds its worker, so with a fixed pool the default leaves
+  // three quarters of the workers for other requests.
+  public int getMaxSubscriptions() {
+    if (maxSubscriptions > 0) {
+      return maxSubscriptions;
+    }
+    return workerMode == WorkerMode.FIXED_POOL ? Math.max(1, workerThreads / 4) : Integer.MAX_VALUE;
+  }
+
+  // Subscription GETs beyond this many waiting ones are answered 503 with Retry-After.
+  public ServerConfig setMaxSubscriptions(int maxSubscriptions) {
+    if (maxSubscriptions < 0) {
+      throw new IllegalArgumentException("Error 400: maxSubscriptions must not be negative.");
+    }
+    this.maxSubscriptions = maxSubscriptions;
+    return this;
+  }
+
+  // Parses options of the form --name=value, e.g. --workers=16 --worker-mode=per-connection
+  public static ServerConfig fromArgs(String[] args) {
+    ServerConfig config = new ServerConfig();
+    for (String arg : args) {
+      if (!arg.startsWith("--")) {
+        continue;
+      }
+      String[] parts = arg.substring(2).split("=", 2);
+      if (parts.length != 2) {
+        throw new IllegalArgumentException("Invalid option format: " + arg);
+      }
+      config.applyOption(parts[0].trim(), parts[1].trim());
+    }
+    return config;
+  }
+
+  private void applyOption(String name, String value) {
+    switch (name) {
+      case "workers":
+        setWorkerThreads(Integer.parseInt(value));
+        break;
+      case "worker-mode":
+        setWorkerMode(WorkerMode.valueOf(value.toUpperCase().replace('-', '_')));
+        break;
+      case "keep-alive-ms":
+        setKeepAliveTimeoutMillis(Integer.parseInt(value));
+        break;
+      case "history-depth":
+        setHistoryDepth(Integer.parseInt(value));
+        break;
+      case "history-max-age-ms":
+        setHistoryMaxAgeMillis(Long.parseLong(value));
+        break;
+      case "history-lamport-span":
+        setHistoryLamportSpan(Long.parseLong(value));
+        break;
+      case "transport":
+        setTransport(Transport.valueOf(value.toUpperCase()));
+        break;
+      case "data-dir":
+        setDataDirectory(value);
+        break;
+      case "snapshot-format":
+        setSnapshotFormat(SnapshotFormat.valueOf(value.toUpperCase()));
+        break;
+      case "long-poll-ms":
+        setLongPollTimeoutMillis(Integer.parseInt(value));
+        break;
+      case "log-level":
+        setLogLevel(AsyncLogger.Level.valueOf(value.toUpperCase()));
+        break;
+      case "queue-capacity":
+        setQueueCapacity(Integer.parseInt(value));
+        break;
+      case "overload-policy":
+        setOverloadPolicy(OverloadPolicy.valueOf(value.toUpperCase().replace('-', '_')));
+        break;
+      case "rate-limit":
+        setRateLimit(Integer.parseInt(value));
+        break;
+      case "max-subscriptions":
+        setMaxSubscriptions(Integer.parseInt(value));
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown option: --" + name);
+    }
+  }
+}
@@ -0,0 +1,151 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters and latency histograms of the server, rendered in the Prometheus text
+// format by GET /metrics. Recording only adds to LongAdders, so it takes no lock and
+// threads updating the same counter do not contend on one cache line.
+public class ServerMetrics {
+  // Bucket bounds in seconds, from sub-millisecond requests up to slow snapshots.
+  private static final double[] LATENCY_BOUNDS =
+      {0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+
+  // Method, then response status.
+  private final Map<String, Map<String, LongAdder>> requests = new ConcurrentHashMap<>();
+  private final Map<String, Histogram> requestDurations = new ConcurrentHashMap<>();
+  private final Histogram acceptWait = new Histogram();
+  private final Histogram snapshotDuration = new Histogram();
+  private final LongAdder snapshotBytes = new LongAdder();
+  private final LongAdder snapshotFailures = new LongAdder();
+  private final LongAdder evictedServers = new LongAdder();
+  private final LongAdder evictedReadings = new LongAdder();
+  private final Map<String, LongAdder> rejections = new ConcurrentHashMap<>();
+
+  private static final class Histogram {
+    private final LongAdder[] buckets = new LongAdder[LATENCY_BOUNDS.length + 1];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    Histogram() {
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+
+    void record(long nanos) {
+      double seconds = nanos / 1e9;
+      int bucket = 0;
+      while (bucket < LATENCY_BOUNDS.length && seconds > LATENCY_BOUNDS[bucket]) {
+        bucket++;
+      }
+      buckets[bucket].increment();
+      count.increment();
+      sumNanos.add(nanos);
+    }
+
+    void render(StringBuilder out, String name, String labels) {
+      String separator = labels.isEmpty() ? "" : ",";
+      long cumulative = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        cumulative += buckets[i].sum();
+        String bound = i < LATENCY_BOUNDS.length ? Double.toString(LATENCY_BOUNDS[i]) : "+Inf";
+        out.append(name).append("_bucket{").append(labels).append(separator).append("le=\"").append(bound)
+            .append("\"} ").append(cumulative).append('\n');
+      }
+      String suffix = labels.isEmpty() ? " " : "{" + labels + "} ";
+      out.append(name).append("_sum").append(suffix).append(sumNanos.sum() / 1e9).append('\n');
+      out.append(name).append("_count").append(suffix).append(count.sum()).append('\n');
+    }
+  }
+
+  // method should come from a small fixed set, every value becomes its own series.
+  public void recordRequest(String method, String status, long nanos) {
+    requests.computeIfAbsent(method, key -> new ConcurrentHashMap<>())
+        .computeIfAbsent(status, key -> new LongAdder())
+        .increment();
+    requestDurations.computeIfAbsent(method, key -> new Histogram()).record(nanos);
+  }
+
+  // Time a connection waited between being accepted and a worker picking it up.
+  public void recordAcceptWait(long nanos) {
+    acceptWait.record(nanos);
+  }
+
+  public void recordSnapshot(long nanos, long bytes) {
+    snapshotDuration.record(nanos);
+    snapshotBytes.add(bytes);
+  }
+
+  public void recordSnapshotFailure() {
+    snapshotFailures.increment();
+  }
+
+  public void recordEviction(int readings) {
+    evictedServers.increment();
+    evictedReadings.add(readings);
+  }
+
+  // Connections or requests turned away, by reason: queue_full, shed_oldest, priority
+  // or rate_limit.
+  public void recordRejection(String reason) {
+    rejections.computeIfAbsent(reason, key -> new LongAdder()).increment();
+  }
+
+  public long getRejectionCount(String reason) {
+    LongAdder count = rejections.get(reason);
+    return count == null ? 0 : count.sum();
+  }
+
+  public long getRequestCount(String method, String status) {
+    LongAdder count = requests.getOrDefault(method, Map.of()).get(status);
+    return count == null ? 0 : count.sum();
+  }
+
+  public void render(StringBuilder out) {
+    header(out, "weather_requests_total", "counter", "Requests handled, by method and response status.");
+    requests.forEach((method, byStatus) -> byStatus.forEach((status, count) ->
+        out.append("weather_requests_total{method=\"").append(method).append("\",status=\"").append(status)
+            .append("\"} ").append(count.sum()).append('\n')));
+
+    header(out, "weather_request_duration_seconds", "histogram", "Time to process a request, by method.");
+    requestDurations.forEach((method, histogram) ->
+        histogram.render(out, "weather_request_duration_seconds", "method=\"" + method + "\""));
+
+    header(out, "weather_accept_wait_seconds", "histogram", "Time from accepting a connection to serving it.");
+    acceptWait.render(out, "weather_accept_wait_seconds", "");
+
+    header(out, "weather_snapshot_duration_seconds", "histogram", "Time to save a snapshot.");
+    snapshotDuration.render(out, "weather_snapshot_duration_seconds", "");
+    counter(out, "weather_snapshot_bytes_total", "Bytes written by snapshots.", snapshotBytes.sum());
+    counter(out, "weather_snapshot_failures_total", "Snapshots that could not be saved.", snapshotFailures.sum());
+
+    counter(out, "weather_evicted_servers_total", "Content servers expired for not sending data.",
+        evictedServers.sum());
+    counter(out, "weather_evicted_readings_total", "Readings dropped with expired content servers.",
+        evictedReadings.sum());
+
+    header(out, "weather_rejected_total", "counter", "Connections and requests refused under load, by reason.");
+    rejections.forEach((reason, count) ->
+        out.append("weather_rejected_total{reason=\"").append(reason).append("\"} ").append(count.sum()).append('\n'));
+  }
+
+  public static void gauge(StringBuilder out, String name, String help, long value) {
+    header(out, name, "gauge", help);
+    out.append(name).append(' ').append(value).append('\n');
+  }
+
+  private static void counter(StringBuilder out, String name, String help, long value) {
+    header(out, name, "counter", help);
+    out.append(name).append(' ').append(value).append('\n');
+  }
+
+  // Label values are client-supplied station IDs, so backslash, quote and newline are escaped.
+  public static String escapeLabel(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  public static void header(StringBuilder out, String name, String type, String help) {
+    out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+}
@@ -0,0 +1,60 @@
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ServerMetricsTest {
+
+  @Test
+  public void testRecordRequest_countsByMethodAndStatus() {
+    ServerMetrics metrics = new ServerMetrics();
+    metrics.recordRequest("GET", "200", 1_000);
+    metrics.recordRequest("GET", "200", 2_000);
+    metrics.recordRequest("GET", "204", 3_000);
+
+    assertEquals(2, metrics.getRequestCount("GET", "200"));
+    assertEquals(1, metrics.getRequestCount("GET", "204"));
+    assertEquals(0, metrics.getRequestCount("PUT", "201"));
+  }
+
+  @Test
+  public void testRender_histogramBucketsAreCumulative() {
+    ServerMetrics metrics = new ServerMetrics();
+    // 50us, 3ms and 20s: the first, a middle and the overflow bucket.
+    metrics.recordRequest("PUT", "201", 50_000);
+    metrics.recordRequest("PUT", "201", 3_000_000);
+    metrics.recordRequest("PUT", "200", 20_000_000_000L);
+    StringBuilder out = new StringBuilder();
+    metrics.render(out);
+    String text = out.toString();
+
+    assertTrue(text.contains("weather_requests_total{method=\"PUT\",status=\"201\"} 2\n"));
+    assertTrue(text.contains("weather_request_duration_seconds_bucket{method=\"PUT\",le=\"1.0E-4\"} 1\n"));
+    assertTrue(text.contains("weather_request_duration_seconds_bucket{method=\"PUT\",le=\"0.005\"} 2\n"));
+    assertTrue(text.contains("weather_request_duration_seconds_bucket{method=\"PUT\",le=\"10.0\"} 2\n"));
+    assertTrue(text.contains("weather_request_duration_seconds_bucket{method=\"PUT\",le=\"+Inf\"} 3\n"));
+    assertTrue(text.contains("weather_request_duration_seconds_count{method=\"PUT\"} 3\n"));
+  }
+
+  @Test
+  public void testRender_snapshotAndEvictionCounters() {
+    ServerMetrics metrics = new ServerMetrics();
+    metrics.recordSnapshot(1_000_000, 512);
+    metrics.recordSnapshot(1_000_000, 256);
+    metrics.recordSnapshotFailure();
+    metrics.recordEviction(3);
+    StringBuilder out = new StringBuilder();
+    metrics.render(out);
+    String text = out.toString();
+
+    assertTrue(text.contains("weather_snapshot_duration_seconds_count 2\n"));
+    assertTrue(text.contains("weather_snapshot_bytes_total 768\n"));
+    assertTrue(text.contains("weather_snapshot_failures_total 1\n"));
+    assertTrue(text.contains("weather_evicted_servers_total 1\n"));
+    assertTrue(text.contains("weather_evicted_readings_total 3\n"));
+  }
+
+  @Test
+  public void testEscapeLabel() {
+    assertEquals("a\\\"b\\\\c\\n", ServerMetrics.escapeLabel("a\"b\\c\n"));
+  }
+}
@@ -1,16 +1,30 @@
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class SocketNetworkHandler implements NetworkHandler {
+public class SocketNetworkHandler implements BlockingServerHandler {
   private ServerSocket serverSocket;
   private Socket clientSocket;
   private PrintWriter out;
-  private BufferedReader in;
+  private InputStream in;
+  // Server side: one reader per accepted socket so pipelined requests survive between reads.
+  private final Map<Socket, HttpRequestReader> clientReaders = new ConcurrentHashMap<>();
+  // Client side: endpoint of the kept-alive connection and the last clock value it reported.
+  private String connectedHost;
+  private int connectedPort;
+  private long lastServerClock;
+  private boolean hasCompletedExchange;
   // For testing
   private boolean isForTested;
   private String testResponse;
@@ -24,9 +38,9 @@ public class SocketNetworkHandler implements NetworkHandler {
   public void initializeServer(int portNumber) {
     try {
       serverSocket = new ServerSocket(portNumber);
-      System.out.println("Server listening on port " + portNumber + " " + serverSocket);
+      AsyncLogger.info("Server listening on port " + portNumber + " " + serverSocket);
     } catch (IOException e) {
-      e.printStackTrace();
+      AsyncLogger.error("Could not listen on port " + portNumber, e);
     }
   }
 
@@ -35,46 +49,54 @@ public class SocketNetworkHandler implements NetworkHandler {
     try {
       return serverSocket.accept();
     } catch (IOException e) {
-      e.printStackTrace();
+      if (!serverSocket.isClosed()) {
+        AsyncLogger.error("Could not accept a connection", e);
+      }
       return null;
     }
   }
 
   @Override
-  public String waitForDataFromClient(Socket clientSocket) {
-    StringBuilder requestBuilder = new StringBuilder();
-
+  public HttpRequest waitForRequestFromClient(Socket clientSocket) {
     try {
-      InputStream input = clientSocket.getInputStream();
-      BufferedReader in = new BufferedReader(new InputStreamReader(input));
-
-      String line;
-      int contentLength = 0;
-      boolean isHeader = true;
-      while (isHeader && (line = in.readLine()) != null) {
-        if (line.startsWith("Content-Length: ")) {
-          contentLength = Integer.parseInt(line.split(":")[1].trim());
-        }
-
-        // Append each line followed by a CRLF to the request builder.
-        requestBuilder.append(line).append("\r\n");
-
-        // A blank line indicates the end of the headers.
-        if (line.isEmpty()) {
-          isHeader = false;
-        }
-      }
+      HttpRequestReader reader = clientReaders.computeIfAbsent(clientSocket, this::openReader);
+      return reader == null ? null : reader.read();
+    } catch (SocketTimeoutException e) {
+      // Idle keep-alive connection.
+      return null;
+    } catch (IOException e) {
+      // Usually the client went away.
+      AsyncLogger.debug("Could not read a request: " + e);
+      return null;
+    }
+  }
 
-      if (contentLength > 0) {
-        char[] bodyChars = new char[contentLength];
-        in.read(bodyChars, 0, contentLength);
-        requestBuilder.append(bodyChars);
+  @Override
+  public boolean awaitRequest(Socket clientSocket, int timeoutMillis) {
+    HttpRequestReader reader = clientReaders.computeIfAbsent(clientSocket, this::openReader);
+    if (reader == null) {
+      return true;
+    }
+    try {
+      // Only this wait is shortened, a request that has started gets the usual timeout.
+      int readTimeout = clientSocket.getSoTimeout();
+      clientSocket.setSoTimeout(timeoutMillis);
+      try {
+        return reader.awaitInput();
+      } finally {
+        clientSocket.setSoTimeout(readTimeout);
       }
+    } catch (IOException e) {
+      // Reported by the next read.
+      return true;
+    }
+  }
 
-      return requestBuilder.toString();
-
-    } catch (Exception e) {
-      e.printStackTrace();
+  private HttpRequestReader openReader(Socket socket) {
+    try {
+      return new HttpRequestReader(socket.getInputStream());
+    } catch (IOException e) {
+      AsyncLogger.debug("Could not open a connection for reading: " + e);
       return null;
     }
   }
@@ -82,29 +104,34 @@ public class SocketNetworkHandler implements NetworkHandler {
   @Override
   public void sendResponseToClient(String response, Socket clientSocket) {
     try {
-      out = new PrintWriter(clientSocket.getOutputStream(), true);
-      out.println(response);
-      out.flush();
+      // Local writer: this method is called concurrently by the server's worker threads.
+      OutputStream output = clientSocket.getOutputStream();
+      output.write(response.getBytes(StandardCharsets.UTF_8));
+      output.flush();
     } catch (IOException e) {
-      e.printStackTrace();
+      AsyncLogger.debug("Could not send a response: " + e);
     }
   }
 
   @Override
-  public String sendDataToServer(String serverName, int portNumber, String data) {
+  public void closeClientConnection(Socket clientSocket) {
+    clientReaders.remove(clientSocket);
     try {
-      out = new PrintWriter(clientSocket.getOutputStream(), true);
-      out.println(data);
-      out.flush();
-      System.out.println("Waiting for response from server..." + data);
-      return readServerResponse();
+      clientSocket.close();
     } catch (IOException e) {
-      System.out.println("Error while connecting to the server: " + e.getMessage());
-      e.printStackTrace();
+      AsyncLogger.debug("Could not close a connection: " + e);
+    }
+  }
+
+  @Override
+  public String sendDataToServer(String serverName, int portNumber, String data) {
+    if (clientSocket == null) {
       return null;
-    } finally {
-      closeResources();
     }
+    if (AsyncLogger.isDebugEnabled()) {
+      AsyncLogger.debug("Waiting for response from server..." + data);
+    }
+    return exchange(serverName, portNumber, List.of(data)).get(0);
   }
 
   @Override
@@ -112,69 +139,170 @@ public class SocketNetworkHandler implements NetworkHandler {
     if (isForTested) {
       return testResponse;
     }
+    if (clientSocket == null) {
+      return null;
+    }
+    return exchange(serverName, portNumber, List.of(request)).get(0);
+  }
+
+  @Override
+  public List<String> sendPipelinedRequests(String serverName, int portNumber, List<String> requests) {
+    List<String> responses = new ArrayList<>();
+    if (isForTested) {
+      requests.forEach(request -> responses.add(testResponse));
+      return responses;
+    }
+    if (clientSocket == null) {
+      requests.forEach(request -> responses.add(null));
+      return responses;
+    }
+    return exchange(serverName, portNumber, requests);
+  }
+
+  // Writes all requests before reading the responses, which arrive in request order.
+  // A reused connection may have been closed by the server's idle timeout, in which
+  // case the requests are retried once on a fresh connection.
+  private List<String> exchange(String serverName, int portNumber, List<String> requests) {
+    boolean reused = clientSocket != null && isConnectedTo(serverName, portNumber) && hasCompletedExchange;
+    List<String> responses = writeAndRead(requests);
+    if (responses == null && reused) {
+      closeResources();
+      if (initializeClientSocket(serverName, portNumber) != -1) {
+        responses = writeAndRead(requests);
+      }
+    }
+    if (responses == null) {
+      closeResources();
+      List<String> failed = new ArrayList<>();
+      requests.forEach(request -> failed.add(null));
+      return failed;
+    }
+
+    hasCompletedExchange = true;
+    if (responses.stream().anyMatch(NetworkHandler::closesConnection)) {
+      closeResources();
+    }
+    return responses;
+  }
+
+  private List<String> writeAndRead(List<String> requests) {
     try {
-      out = new PrintWriter(clientSocket.getOutputStream(), true);
-      out.println(request);
+      for (String request : requests) {
+        out.print(request);
+      }
       out.flush();
-      return readServerResponse();
+
+      List<String> responses = new ArrayList<>();
+      for (int i = 0; i < requests.size(); i++) {
+        String response = readServerResponse();
+        if (response == null) {
+          return null;
+        }
+        responses.add(response);
+      }
+      return responses;
     } catch (IOException e) {
-      e.printStackTrace();
+      AsyncLogger.warn("Error while connecting to the server: " + e.getMessage());
       return null;
-    } finally {
-      closeResources();
     }
   }
 
   @Override
-  public int initializeClientSocket(String serverName, int portNumber) {
+  public long initializeClientSocket(String serverName, int portNumber) {
     if (isForTested) {
       return 0;
     }
+    if (clientSocket != null && !clientSocket.isClosed() && isConnectedTo(serverName, portNumber)) {
+      // Keep-alive: reuse the open connection, the greeting is only sent once per connection.
+      return lastServerClock;
+    }
     try {
       this.closeResources();
       clientSocket = new Socket(serverName, portNumber);
-      out = new PrintWriter(clientSocket.getOutputStream(), true);
-      in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-      String clockLine = in.readLine();
-      System.out.println("Clock line: " + clockLine);
+      out = new PrintWriter(new OutputStreamWriter(clientSocket.getOutputStream(), StandardCharsets.UTF_8), true);
+      in = new BufferedInputStream(clientSocket.getInputStream());
+      hasCompletedExchange = false;
+      String clockLine = readLine(in);
+      if (AsyncLogger.isDebugEnabled()) {
+        AsyncLogger.debug("Clock line: " + clockLine);
+      }
       if (clockLine != null && clockLine.startsWith("LamportClock: ")) {
-        return Integer.parseInt(clockLine.split(":")[1].trim());
+        connectedHost = serverName;
+        connectedPort = portNumber;
+        lastServerClock = Long.parseLong(clockLine.split(":")[1].trim());
+        return lastServerClock;
       } else {
         throw new IOException("Error while initializing client socket.");
       }
     } catch (IOException e) {
-      System.out.println("Error while initializing client socket: " + e.getMessage());
-      e.printStackTrace();
+      AsyncLogger.warn("Error while initializing client socket: " + e.getMessage());
       closeResources();
       return -1;
     }
   }
 
+  private boolean isConnectedTo(String serverName, int portNumber) {
+    return serverName.equals(connectedHost) && portNumber == connectedPort;
+  }
+
+  // Returns null if the server closed the connection before sending a response.
   private String readServerResponse() throws IOException {
     StringBuilder responseBuilder = new StringBuilder();
-    String line;
+    String line = readLine(in);
+    // Skip the blank line that follows the greeting and any separators between responses.
+    while (line != null && line.isEmpty()) {
+      line = readLine(in);
+    }
+    if (line == null) {
+      return null;
+    }
+
     int contentLength = 0;
     boolean isHeader = true;
-    in.readLine();
-    while (isHeader && (line = in.readLine()) != null) {
+    while (isHeader && line != null) {
       if (line.startsWith("Content-Length: ")) {
         contentLength = Integer.parseInt(line.split(":")[1].trim());
       }
+      if (line.startsWith("LamportClock: ")) {
+        lastServerClock = Long.parseLong(line.split(":")[1].trim());
+      }
 
       responseBuilder.append(line).append("\r\n");
 
       if (line.isEmpty()) {
         isHeader = false;
+      } else {
+        line = readLine(in);
       }
     }
 
-    char[] bodyChars = new char[contentLength];
-    in.read(bodyChars, 0, contentLength);
-    responseBuilder.append(bodyChars);
+    // Content-Length counts bytes, decode only once the whole body is read.
+    byte[] body = in.readNBytes(contentLength);
+    if (body.length < contentLength) {
+      throw new IOException("Connection closed before the full body was received.");
+    }
+    responseBuilder.append(new String(body, StandardCharsets.UTF_8));
     return responseBuilder.toString();
 
   }
 
+  // Reads one CRLF or LF terminated header line, null at the end of the stream.
+  private static String readLine(InputStream input) throws IOException {
+    StringBuilder line = new StringBuilder();
+    int b;
+    while ((b = input.read()) != -1) {
+      if (b == '\n') {
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') {
+          line.setLength(length - 1);
+        }
+        return line.toString();
+      }
+      line.append((char) b);
+    }
+    return line.length() == 0 ? null : line.toString();
+  }
+
   @Override
   public void closeResources() {
     try {
@@ -187,8 +315,12 @@ public class SocketNetworkHandler implements NetworkHandler {
       if (serverSocket != null)
         serverSocket.close();
     } catch (IOException e) {
-      e.printStackTrace();
+      AsyncLogger.debug("Could not close the sockets: " + e);
     }
+    in = null;
+    out = null;
+    clientSocket = null;
+    connectedHost = null;
   }
 
   @Override
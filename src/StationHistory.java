@@ -0,0 +1,204 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
+
+// Readings of one station kept sorted by Lamport time. Readings normally arrive in
+// time order so inserts append, lookups are a binary search under an optimistic read.
+// The retention policy is applied on every insert, so the history never outgrows it.
+public class StationHistory {
+  private final StampedLock lock = new StampedLock();
+  private final RetentionPolicy retentionPolicy;
+  private WeatherData[] readings = new WeatherData[4];
+  private int size;
+
+  public StationHistory() {
+    this(RetentionPolicy.UNBOUNDED);
+  }
+
+  public StationHistory(RetentionPolicy retentionPolicy) {
+    this.retentionPolicy = retentionPolicy;
+  }
+
+  // A reading with the same Lamport time and server as a stored one is ignored, so
+  // replaying a write-ahead log over a snapshot that already holds it is harmless.
+  public void add(WeatherData weatherData) {
+    long stamp = lock.writeLock();
+    try {
+      int index = upperBound(readings, size, weatherData.getTime());
+      for (int i = index - 1; i >= 0 && readings[i].getTime() == weatherData.getTime(); i--) {
+        if (readings[i].getserverID().equals(weatherData.getserverID())) {
+          return;
+        }
+      }
+      if (size == readings.length) {
+        readings = Arrays.copyOf(readings, size * 2);
+      }
+      System.arraycopy(readings, index, readings, index + 1, size - index);
+      readings[index] = weatherData;
+      size++;
+      enforceRetention();
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  // Caller holds the write lock.
+  private void enforceRetention() {
+    int maxReadings = retentionPolicy.getMaxReadings();
+    boolean depthOnly = retentionPolicy.getMaxAgeMillis() == 0 && retentionPolicy.getMaxLamportSpan() == 0;
+    if (retentionPolicy.isUnbounded() || (depthOnly && size <= maxReadings)) {
+      return;
+    }
+
+    int newestIndex = size - 1;
+    WeatherData newest = readings[newestIndex];
+    int firstAllowed = maxReadings > 0 ? Math.max(0, size - maxReadings) : 0;
+    long now = System.currentTimeMillis();
+    int kept = 0;
+    for (int i = 0; i < size; i++) {
+      WeatherData reading = readings[i];
+      if (i == newestIndex || (i >= firstAllowed && !retentionPolicy.isExpired(reading, newest, now))) {
+        readings[kept++] = reading;
+      }
+    }
+    Arrays.fill(readings, kept, size, null);
+    size = kept;
+  }
+
+  // Latest reading with a Lamport time at or before lamportTime, or null.
+  public WeatherData latestAtOrBefore(long lamportTime) {
+    long stamp = lock.tryOptimisticRead();
+    WeatherData[] currentReadings = readings;
+    int currentSize = size;
+    WeatherData result = floor(currentReadings, currentSize, lamportTime);
+    if (lock.validate(stamp)) {
+      return result;
+    }
+
+    stamp = lock.readLock();
+    try {
+      return floor(readings, size, lamportTime);
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  public WeatherData latest() {
+    return latestAtOrBefore(Long.MAX_VALUE);
+  }
+
+  // Latest reading sent by serverID, or null.
+  public WeatherData latestFrom(String serverID) {
+    long stamp = lock.readLock();
+    try {
+      for (int i = size - 1; i >= 0; i--) {
+        if (readings[i].getserverID().equals(serverID)) {
+          return readings[i];
+        }
+      }
+      return null;
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  public boolean removeIf(Predicate<WeatherData> filter) {
+    long stamp = lock.writeLock();
+    try {
+      int kept = 0;
+      for (int i = 0; i < size; i++) {
+        if (!filter.test(readings[i])) {
+          readings[kept++] = readings[i];
+        }
+      }
+      boolean removed = kept != size;
+      Arrays.fill(readings, kept, size, null);
+      size = kept;
+      return removed;
+    } finally {
+      lock.unlockWrite(stamp);
+    }
+  }
+
+  public boolean anyMatch(Predicate<WeatherData> filter) {
+    long stamp = lock.readLock();
+    try {
+      for (int i = 0; i < size; i++) {
+        if (filter.test(readings[i])) {
+          return true;
+        }
+      }
+      return false;
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  public int size() {
+    long stamp = lock.readLock();
+    try {
+      return size;
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  // Copy of the readings in ascending Lamport time order.
+  public List<WeatherData> snapshot() {
+    long stamp = lock.readLock();
+    try {
+      return new ArrayList<>(Arrays.asList(readings).subList(0, size));
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  public static StationHistory of(List<WeatherData> readings, RetentionPolicy retentionPolicy) {
+    StationHistory history = new StationHistory(retentionPolicy);
+    if (readings != null) {
+      readings.forEach(history::add);
+    }
+    return history;
+  }
+
+  // Index of the first reading with a time greater than lamportTime.
+  private static int upperBound(WeatherData[] readings, int size, long lamportTime) {
+    int low = 0;
+    int high = size;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (readings[mid].getTime() <= lamportTime) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  // May run against a state that is being modified (optimistic read), so it must not
+  // fail on torn values; the caller discards the result if the stamp does not validate.
+  private static WeatherData floor(WeatherData[] readings, int size, long lamportTime) {
+    int low = 0;
+    int high = Math.min(size, readings.length);
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      WeatherData reading = readings[mid];
+      if (reading == null) {
+        return null;
+      }
+      if (reading.getTime() <= lamportTime) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low == 0 ? null : readings[low - 1];
+  }
+}
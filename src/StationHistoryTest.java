@@ -0,0 +1,163 @@
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StationHistoryTest {
+
+  private StationHistory history;
+
+  @BeforeEach
+  public void setup() {
+    history = new StationHistory();
+  }
+
+  private static WeatherData reading(long time, String serverID) {
+    JsonObject data = new JsonObject();
+    data.addProperty("id", "station1");
+    data.addProperty("time", time);
+    return new WeatherData(data, time, serverID);
+  }
+
+  @Test
+  public void testLatestAtOrBefore_emptyHistory() {
+    assertNull(history.latestAtOrBefore(10));
+    assertNull(history.latest());
+    assertTrue(history.isEmpty());
+  }
+
+  @Test
+  public void testLatestAtOrBefore_outOfOrderInserts() {
+    history.add(reading(5, "server1"));
+    history.add(reading(1, "server1"));
+    history.add(reading(9, "server2"));
+    history.add(reading(3, "server2"));
+
+    assertNull(history.latestAtOrBefore(0));
+    assertEquals(1, history.latestAtOrBefore(2).getTime());
+    assertEquals(5, history.latestAtOrBefore(5).getTime());
+    assertEquals(5, history.latestAtOrBefore(8).getTime());
+    assertEquals(9, history.latest().getTime());
+  }
+
+  @Test
+  public void testSnapshot_sortedByTime() {
+    history.add(reading(7, "server1"));
+    history.add(reading(2, "server1"));
+    history.add(reading(4, "server1"));
+
+    List<WeatherData> snapshot = history.snapshot();
+    assertEquals(3, snapshot.size());
+    assertEquals(2, snapshot.get(0).getTime());
+    assertEquals(4, snapshot.get(1).getTime());
+    assertEquals(7, snapshot.get(2).getTime());
+  }
+
+  @Test
+  public void testRemoveIf_byServer() {
+    history.add(reading(1, "server1"));
+    history.add(reading(2, "server2"));
+    history.add(reading(3, "server1"));
+
+    assertTrue(history.removeIf(data -> data.getserverID().equals("server1")));
+    assertEquals(1, history.size());
+    assertEquals(2, history.latest().getTime());
+    assertFalse(history.removeIf(data -> data.getserverID().equals("server1")));
+  }
+
+  @Test
+  public void testAdd_ignoresReplayedReading() {
+    history.add(reading(3, "server1"));
+    history.add(reading(3, "server2"));
+    history.add(reading(3, "server1"));
+
+    assertEquals(2, history.size());
+  }
+
+  @Test
+  public void testRetention_depthKeepsNewestReadings() {
+    StationHistory bounded = new StationHistory(new RetentionPolicy(3, 0, 0));
+    for (int time = 1; time <= 100; time++) {
+      bounded.add(reading(time, "server1"));
+    }
+    assertEquals(3, bounded.size());
+    assertEquals(98, bounded.snapshot().get(0).getTime());
+    assertEquals(100, bounded.latest().getTime());
+  }
+
+  @Test
+  public void testRetention_lamportSpan() {
+    StationHistory bounded = new StationHistory(new RetentionPolicy(0, 0, 10));
+    bounded.add(reading(1, "server1"));
+    bounded.add(reading(8, "server1"));
+    bounded.add(reading(15, "server1"));
+    assertEquals(2, bounded.size());
+    assertNull(bounded.latestAtOrBefore(4));
+  }
+
+  @Test
+  public void testRetention_lamportSpanBeyondIntRange() {
+    StationHistory bounded = new StationHistory(
+        new ServerConfig().setHistoryLamportSpan(5_000_000_000L).getRetentionPolicy());
+    bounded.add(reading(1, "server1"));
+    bounded.add(reading(4_000_000_001L, "server1"));
+    bounded.add(reading(6_000_000_001L, "server1"));
+    assertEquals(2, bounded.size());
+    assertEquals(4_000_000_001L, bounded.snapshot().get(0).getTime());
+  }
+
+  @Test
+  public void testRetention_maxAgeKeepsNewestReading() {
+    StationHistory bounded = new StationHistory(new RetentionPolicy(0, 1000, 0));
+    long now = System.currentTimeMillis();
+    JsonObject data = new JsonObject();
+    data.addProperty("id", "station1");
+    bounded.add(new WeatherData(data, 1, "server1", now - 5000));
+    bounded.add(new WeatherData(data, 2, "server1", now - 4000));
+    assertEquals(1, bounded.size());
+    assertEquals(2, bounded.latest().getTime());
+
+    bounded.add(new WeatherData(data, 3, "server1", now));
+    assertEquals(1, bounded.size());
+    assertEquals(3, bounded.latest().getTime());
+  }
+
+  @Test
+  public void testConcurrentWritersAndReaders() throws InterruptedException {
+    int writers = 4;
+    int readingsPerWriter = 500;
+    List<Thread> threads = new ArrayList<>();
+    for (int w = 0; w < writers; w++) {
+      int offset = w;
+      threads.add(new Thread(() -> {
+        for (int i = 0; i < readingsPerWriter; i++) {
+          history.add(reading(i * writers + offset, "server" + offset));
+        }
+      }));
+    }
+    List<Throwable> failures = new ArrayList<>();
+    Thread reader = new Thread(() -> {
+      for (int i = 0; i < 5000; i++) {
+        WeatherData found = history.latestAtOrBefore(i);
+        if (found != null && found.getTime() > i) {
+          synchronized (failures) {
+            failures.add(new AssertionError("Reading after requested time"));
+          }
+        }
+      }
+    });
+    threads.add(reader);
+    threads.forEach(Thread::start);
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertTrue(failures.isEmpty());
+    assertEquals(writers * readingsPerWriter, history.size());
+    assertEquals(writers * readingsPerWriter - 1, history.latest().getTime());
+  }
+}
@@ -0,0 +1,60 @@
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Wakes up waiters when one of the keys they watch changes. A waiter takes the
+// future before checking the current state, so a change made after the check still
+// completes it. Keys are only held while someone waits on them: a waiter calls
+// release() when it stops waiting, signalled or not.
+public class UpdateSignals<K> {
+  private final Map<K, Set<CompletableFuture<Void>>> waiters = new ConcurrentHashMap<>();
+  private volatile boolean closed;
+
+  // Completes on the next signal() of any of the keys.
+  public CompletableFuture<Void> next(Collection<K> keys) {
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    for (K key : keys) {
+      waiters.compute(key, (k, registered) -> {
+        Set<CompletableFuture<Void>> result = registered == null ? new HashSet<>() : registered;
+        result.add(future);
+        return result;
+      });
+    }
+    // Checked after registering, a close() in between has either seen the future or set the flag.
+    if (closed) {
+      future.complete(null);
+    }
+    return future;
+  }
+
+  // Unregisters a future returned by next() for the same keys.
+  public void release(Collection<K> keys, CompletableFuture<Void> future) {
+    for (K key : keys) {
+      waiters.computeIfPresent(key, (k, registered) -> {
+        registered.remove(future);
+        return registered.isEmpty() ? null : registered;
+      });
+    }
+  }
+
+  public void signal(K key) {
+    Set<CompletableFuture<Void>> registered = waiters.remove(key);
+    if (registered != null) {
+      registered.forEach(future -> future.complete(null));
+    }
+  }
+
+  // Releases every waiter, later calls to next() complete at once.
+  public void close() {
+    closed = true;
+    waiters.keySet().forEach(this::signal);
+  }
+
+  // Keys with at least one waiter.
+  int size() {
+    return waiters.size();
+  }
+}
@@ -0,0 +1,66 @@
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UpdateSignalsTest {
+
+  private final UpdateSignals<String> signals = new UpdateSignals<>();
+
+  @Test
+  public void testNext_completesOnAnyWatchedKey() {
+    CompletableFuture<Void> changed = signals.next(List.of("station1", "station2"));
+
+    signals.signal("station3");
+    assertFalse(changed.isDone());
+    signals.signal("station2");
+    assertTrue(changed.isDone());
+  }
+
+  @Test
+  public void testNext_onlySignalsAfterItWasTaken() {
+    signals.signal("station1");
+    CompletableFuture<Void> changed = signals.next(List.of("station1"));
+
+    assertFalse(changed.isDone());
+    signals.signal("station1");
+    assertTrue(changed.isDone());
+    assertFalse(signals.next(List.of("station1")).isDone());
+  }
+
+  @Test
+  public void testRelease_dropsKeysNobodyWaitsOn() {
+    CompletableFuture<Void> first = signals.next(List.of("station1", "station2"));
+    CompletableFuture<Void> second = signals.next(List.of("station2"));
+
+    signals.release(List.of("station1", "station2"), first);
+    assertEquals(1, signals.size());
+    signals.release(List.of("station2"), second);
+    assertEquals(0, signals.size());
+  }
+
+  @Test
+  public void testRelease_afterASignalKeepsNewerWaiters() {
+    CompletableFuture<Void> first = signals.next(List.of("station1", "station2"));
+    signals.signal("station1");
+    CompletableFuture<Void> second = signals.next(List.of("station1"));
+
+    signals.release(List.of("station1", "station2"), first);
+
+    assertEquals(1, signals.size());
+    signals.signal("station1");
+    assertTrue(second.isDone());
+  }
+
+  @Test
+  public void testClose_releasesWaiters() {
+    CompletableFuture<Void> changed = signals.next(List.of("station1"));
+
+    signals.close();
+
+    assertTrue(changed.isDone());
+    assertTrue(signals.next(List.of("station2")).isDone());
+  }
+}
@@ -1,25 +1,174 @@
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import com.google.gson.*;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
+// One stored reading. The JSON body is kept serialised, which is what GET responses
+// send, and numeric fields are kept as doubles. The parsed tree is only cached softly,
+// so the heap can take it back from readings nobody asks for.
+@JsonAdapter(WeatherData.Adapter.class)
 public class WeatherData implements Comparable<WeatherData> {
-  private final int time;
-  private final JsonObject data;
+  // Server IDs repeat across readings, one shared instance each while the server has
+  // readings stored, see releaseServerID.
+  private static final Map<String, String> SERVER_IDS = new ConcurrentHashMap<>();
+  // Numeric field name lists repeat across readings of the same kind of station. Bounded,
+  // so odd payloads cannot grow it without limit, later lists just are not shared.
+  private static final Map<List<String>, String[]> FIELD_NAMES = new ConcurrentHashMap<>();
+  private static final int MAX_FIELD_NAME_LISTS = 1024;
+  private static final String[] NO_FIELDS = new String[0];
+  private static final double[] NO_VALUES = new double[0];
+
+  private final long time;
+  private final String json;
   private final String serverID;
+  // Wall-clock arrival time, 0 for readings loaded from snapshots that predate it.
+  private final long receivedAt;
+  private final String stationID;
+  private final String[] numericNames;
+  private final double[] numericValues;
+  private volatile SoftReference<JsonObject> tree;
+
+  public WeatherData(JsonObject data, long time, String serverID) {
+    this(data, time, serverID, System.currentTimeMillis());
+  }
 
-  public WeatherData(JsonObject data, int time, String serverID) {
+  public WeatherData(JsonObject data, long time, String serverID, long receivedAt) {
     if (data == null || serverID == null) {
       throw new IllegalArgumentException("Error 400: data or serverID is null.");
     }
 
     this.time = time;
-    this.data = data;
-    this.serverID = serverID;
+    this.json = data.toString();
+    this.serverID = SERVER_IDS.computeIfAbsent(serverID, key -> key);
+    this.receivedAt = receivedAt;
+    JsonElement id = data.get("id");
+    this.stationID = id != null && id.isJsonPrimitive() ? id.getAsString().intern() : null;
+
+    List<String> names = new ArrayList<>();
+    double[] values = new double[data.size()];
+    for (Map.Entry<String, JsonElement> field : data.entrySet()) {
+      double value = numericValue(field.getValue());
+      if (!Double.isNaN(value)) {
+        values[names.size()] = value;
+        names.add(field.getKey());
+      }
+    }
+    this.numericNames = internNames(names);
+    this.numericValues = names.isEmpty() ? NO_VALUES : Arrays.copyOf(values, names.size());
+  }
+
+  // For readers that already hold the fields, such as BinarySnapshot, so loading a
+  // reading does not parse its JSON.
+  WeatherData(String json, long time, String serverID, long receivedAt, String stationID,
+      String[] numericNames, double[] numericValues) {
+    if (json == null || serverID == null || numericNames.length != numericValues.length) {
+      throw new IllegalArgumentException("Error 400: json, serverID or numeric fields are invalid.");
+    }
+    this.time = time;
+    this.json = json;
+    this.serverID = SERVER_IDS.computeIfAbsent(serverID, key -> key);
+    this.receivedAt = receivedAt;
+    this.stationID = stationID == null ? null : stationID.intern();
+    this.numericNames = internNames(Arrays.asList(numericNames));
+    this.numericValues = numericValues.length == 0 ? NO_VALUES : numericValues.clone();
+  }
+
+  private static String[] internNames(List<String> names) {
+    if (names.isEmpty()) {
+      return NO_FIELDS;
+    }
+    String[] shared = FIELD_NAMES.get(names);
+    if (shared != null) {
+      return shared;
+    }
+    String[] interned = new String[names.size()];
+    for (int i = 0; i < interned.length; i++) {
+      interned[i] = names.get(i).intern();
+    }
+    if (FIELD_NAMES.size() >= MAX_FIELD_NAME_LISTS) {
+      return interned;
+    }
+    String[] previous = FIELD_NAMES.putIfAbsent(Arrays.asList(interned), interned);
+    return previous == null ? interned : previous;
+  }
+
+  // Numbers, and strings holding a number such as "air_temp": "13.3", NaN otherwise.
+  private static double numericValue(JsonElement value) {
+    if (!value.isJsonPrimitive()) {
+      return Double.NaN;
+    }
+    JsonPrimitive primitive = value.getAsJsonPrimitive();
+    if (primitive.isNumber()) {
+      return primitive.getAsDouble();
+    }
+    if (!primitive.isString()) {
+      return Double.NaN;
+    }
+    String text = primitive.getAsString();
+    if (text.isEmpty() || text.length() > 32) {
+      return Double.NaN;
+    }
+    char first = text.charAt(0);
+    if (first != '-' && first != '.' && (first < '0' || first > '9')) {
+      return Double.NaN;
+    }
+    try {
+      double parsed = Double.parseDouble(text);
+      return Double.isFinite(parsed) ? parsed : Double.NaN;
+    } catch (NumberFormatException e) {
+      return Double.NaN;
+    }
   }
 
+  // Callers get their own copy, the cached tree is never handed out.
   public JsonObject getData() {
-    return data;
+    SoftReference<JsonObject> cached = tree;
+    JsonObject data = cached == null ? null : cached.get();
+    if (data == null) {
+      data = JsonParser.parseString(json).getAsJsonObject();
+      tree = new SoftReference<>(data);
+    }
+    return data.deepCopy();
+  }
+
+  // The data as serialised JSON.
+  public String getJson() {
+    return json;
+  }
+
+  // Value of a numeric field, NaN if the field is missing or not a number.
+  public double getNumber(String field) {
+    for (int i = 0; i < numericNames.length; i++) {
+      if (numericNames[i].equals(field)) {
+        return numericValues[i];
+      }
+    }
+    return Double.NaN;
+  }
+
+  // The "id" field, null if the reading has none.
+  public String getStationID() {
+    return stationID;
   }
 
-  public int getTime() {
+  // Shared with other readings, callers must not change them.
+  String[] numericNames() {
+    return numericNames;
+  }
+
+  double[] numericValues() {
+    return numericValues;
+  }
+
+  public long getTime() {
     return time;
   }
 
@@ -27,13 +176,81 @@ public class WeatherData implements Comparable<WeatherData> {
     return serverID;
   }
 
+  public long getReceivedAt() {
+    return receivedAt;
+  }
+
+  // Called once no stored reading comes from serverID, so servers that went away do not
+  // stay in the shared instances. A later reading of the server interns it again.
+  static void releaseServerID(String serverID) {
+    SERVER_IDS.remove(serverID);
+  }
+
   @Override
   public int compareTo(WeatherData other) {
-    return Integer.compare(this.time, other.time);
+    return Long.compare(this.time, other.time);
   }
 
   @Override
   public String toString() {
-    return "LamportTime: " + time + ", serverID: " + serverID + ", Data: " + data.toString();
+    return "LamportTime: " + time + ", serverID: " + serverID + ", Data: " + json;
+  }
+
+  // Keeps the snapshot layout of the earlier field-by-field serialisation:
+  // {"time":..,"data":{..},"serverID":..,"receivedAt":..}
+  static class Adapter extends TypeAdapter<WeatherData> {
+    private static final TypeAdapter<JsonElement> ELEMENT_ADAPTER = new Gson().getAdapter(JsonElement.class);
+
+    @Override
+    public void write(JsonWriter out, WeatherData reading) throws IOException {
+      if (reading == null) {
+        out.nullValue();
+        return;
+      }
+      out.beginObject();
+      out.name("time").value(reading.time);
+      out.name("data");
+      try {
+        out.jsonValue(reading.json);
+      } catch (UnsupportedOperationException e) {
+        // Writers that build a tree (Gson.toJsonTree) cannot take raw JSON.
+        ELEMENT_ADAPTER.write(out, reading.getData());
+      }
+      out.name("serverID").value(reading.serverID);
+      out.name("receivedAt").value(reading.receivedAt);
+      out.endObject();
+    }
+
+    @Override
+    public WeatherData read(JsonReader in) throws IOException {
+      long time = 0;
+      JsonObject data = null;
+      String serverID = null;
+      long receivedAt = 0;
+      in.beginObject();
+      while (in.hasNext()) {
+        switch (in.nextName()) {
+          case "time":
+            time = in.nextLong();
+            break;
+          case "data":
+            data = JsonParser.parseReader(in).getAsJsonObject();
+            break;
+          case "serverID":
+            serverID = in.nextString();
+            break;
+          case "receivedAt":
+            receivedAt = in.nextLong();
+            break;
+          default:
+            in.skipValue();
+        }
+      }
+      in.endObject();
+      if (data == null || serverID == null) {
+        throw new JsonParseException("Reading without data or serverID.");
+      }
+      return new WeatherData(data, time, serverID, receivedAt);
+    }
   }
 }
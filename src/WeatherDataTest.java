@@ -0,0 +1,96 @@
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WeatherDataTest {
+
+  private static JsonObject sample() {
+    JsonObject data = new JsonObject();
+    data.addProperty("id", "IDS60901");
+    data.addProperty("name", "Adelaide (West Terrace /  ngayirdapira)");
+    data.addProperty("air_temp", "13.3");
+    data.addProperty("lat", "-34.9");
+    data.addProperty("press", 1023.9);
+    data.addProperty("wind_dir", "S");
+    return data;
+  }
+
+  @Test
+  public void testGetData_returnsEqualCopy() {
+    WeatherData reading = new WeatherData(sample(), 1, "server1");
+
+    assertEquals(sample(), reading.getData());
+    reading.getData().addProperty("id", "changed");
+    assertEquals("IDS60901", reading.getData().get("id").getAsString());
+    assertEquals(sample().toString(), reading.getJson());
+  }
+
+  @Test
+  public void testGetNumber() {
+    WeatherData reading = new WeatherData(sample(), 1, "server1");
+
+    assertEquals(13.3, reading.getNumber("air_temp"));
+    assertEquals(-34.9, reading.getNumber("lat"));
+    assertEquals(1023.9, reading.getNumber("press"));
+    assertTrue(Double.isNaN(reading.getNumber("wind_dir")));
+    assertTrue(Double.isNaN(reading.getNumber("missing")));
+  }
+
+  @Test
+  public void testStationIDAndFieldNamesAreShared() {
+    WeatherData first = new WeatherData(sample(), 1, "server1");
+    WeatherData second = new WeatherData(sample(), 2, "server1");
+
+    assertEquals("IDS60901", first.getStationID());
+    assertSame(first.getStationID(), second.getStationID());
+    assertSame(first.numericNames(), second.numericNames());
+  }
+
+  @Test
+  public void testFieldConstructor_keepsJsonAndNumbers() {
+    WeatherData reading = new WeatherData(sample(), 3, "server1", 99L);
+    WeatherData copy = new WeatherData(reading.getJson(), 3, "server1", 99L,
+        reading.getStationID(), reading.numericNames(), reading.numericValues());
+
+    assertEquals(reading.getJson(), copy.getJson());
+    assertEquals(sample(), copy.getData());
+    assertEquals(1023.9, copy.getNumber("press"));
+    assertSame(reading.numericNames(), copy.numericNames());
+  }
+
+  @Test
+  public void testServerIDsAreShared() {
+    WeatherData first = new WeatherData(sample(), 1, new String("server1"));
+    WeatherData second = new WeatherData(sample(), 2, new String("server1"));
+
+    assertSame(first.getserverID(), second.getserverID());
+  }
+
+  @Test
+  public void testReleaseServerID_stopsSharingTheInstance() {
+    WeatherData first = new WeatherData(sample(), 1, new String("server2"));
+    WeatherData.releaseServerID("server2");
+    WeatherData second = new WeatherData(sample(), 2, new String("server2"));
+
+    assertNotSame(first.getserverID(), second.getserverID());
+    assertEquals(first.getserverID(), second.getserverID());
+  }
+
+  @Test
+  public void testGsonRoundTrip_keepsSnapshotLayout() {
+    Gson gson = new Gson();
+    WeatherData reading = new WeatherData(sample(), 7, "server1", 1234L);
+
+    JsonObject encoded = gson.toJsonTree(reading).getAsJsonObject();
+    assertEquals(7, encoded.get("time").getAsInt());
+    assertEquals("server1", encoded.get("serverID").getAsString());
+    assertEquals(1234L, encoded.get("receivedAt").getAsLong());
+    assertEquals(sample(), encoded.getAsJsonObject("data"));
+
+    WeatherData decoded = gson.fromJson(gson.toJson(reading), WeatherData.class);
+    assertEquals(reading.getJson(), decoded.getJson());
+    assertEquals(1234L, decoded.getReceivedAt());
+  }
+}
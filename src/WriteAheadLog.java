@@ -0,0 +1,218 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Append-only log of accepted readings, split into numbered segments. Appends are
+// batched by a single writer thread: everything queued while the previous fsync ran
+// is written and forced together (group commit), and each append's future completes
+// once its record is durable.
+//
+// Record format, one per line: <crc32 hex> <json>
+public class WriteAheadLog {
+  private static final String SEGMENT_PREFIX = "data.wal.";
+
+  private final Path directory;
+  private final LinkedBlockingQueue<PendingAppend> queue = new LinkedBlockingQueue<>();
+  private final Thread writerThread;
+  private FileChannel channel;
+  private long generation;
+  private boolean closed;
+
+  private static final PendingAppend SHUTDOWN = new PendingAppend(null, false);
+
+  private static class PendingAppend {
+    private final byte[] record;
+    private final boolean roll;
+    private final CompletableFuture<Long> done = new CompletableFuture<>();
+
+    PendingAppend(byte[] record, boolean roll) {
+      this.record = record;
+      this.roll = roll;
+    }
+  }
+
+  public WriteAheadLog(Path directory) throws IOException {
+    this.directory = directory;
+    Files.createDirectories(directory);
+    // Never append to an existing segment, its tail may be torn by a crash.
+    this.generation = listSegments(directory).stream().mapToLong(WriteAheadLog::generationOf).max().orElse(0) + 1;
+    this.channel = openSegment(generation);
+    this.writerThread = new Thread(this::runWriter, "wal-writer");
+    this.writerThread.setDaemon(true);
+    this.writerThread.start();
+  }
+
+  // Completes once the record has been forced to disk.
+  public CompletableFuture<Long> append(String json) {
+    return enqueue(new PendingAppend(encode(json), false));
+  }
+
+  // Starts a new segment and returns its generation. Segments below the returned
+  // generation only hold records written before the roll.
+  public CompletableFuture<Long> roll() {
+    return enqueue(new PendingAppend(null, true));
+  }
+
+  private synchronized CompletableFuture<Long> enqueue(PendingAppend pending) {
+    if (closed) {
+      return CompletableFuture.failedFuture(new IOException("Write-ahead log is closed."));
+    }
+    queue.add(pending);
+    return pending.done;
+  }
+
+  // Deletes segments older than generation once a snapshot covers them.
+  public void deleteSegmentsBefore(long generation) throws IOException {
+    for (Path segment : listSegments(directory)) {
+      if (generationOf(segment) < generation) {
+        Files.deleteIfExists(segment);
+      }
+    }
+  }
+
+  // Writes what is already queued, then closes the current segment.
+  public void close() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      queue.add(SHUTDOWN);
+    }
+    try {
+      writerThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  // The writer is never interrupted, an interrupt would close the FileChannel under it.
+  private void runWriter() {
+    List<PendingAppend> batch = new ArrayList<>();
+    boolean running = true;
+    while (running) {
+      try {
+        batch.add(queue.take());
+      } catch (InterruptedException e) {
+        break;
+      }
+      queue.drainTo(batch);
+      // Nothing can be queued after SHUTDOWN.
+      running = !batch.remove(SHUTDOWN);
+      writeBatch(batch);
+      batch.clear();
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      AsyncLogger.error("Could not close the write-ahead log", e);
+    }
+  }
+
+  private void writeBatch(List<PendingAppend> batch) {
+    List<PendingAppend> written = new ArrayList<>();
+    try {
+      for (PendingAppend pending : batch) {
+        if (pending.roll) {
+          flush(written);
+          channel.close();
+          generation++;
+          channel = openSegment(generation);
+          pending.done.complete(generation);
+        } else {
+          ByteBuffer buffer = ByteBuffer.wrap(pending.record);
+          while (buffer.hasRemaining()) {
+            channel.write(buffer);
+          }
+          written.add(pending);
+        }
+      }
+      flush(written);
+    } catch (IOException e) {
+      batch.forEach(pending -> pending.done.completeExceptionally(e));
+    }
+  }
+
+  private void flush(List<PendingAppend> written) throws IOException {
+    if (written.isEmpty()) {
+      return;
+    }
+    channel.force(false);
+    written.forEach(pending -> pending.done.complete(generation));
+    written.clear();
+  }
+
+  private FileChannel openSegment(long generation) throws IOException {
+    return FileChannel.open(directory.resolve(SEGMENT_PREFIX + generation),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  // Feeds every intact record of every segment, oldest first, to consumer. Replay
+  // of a segment stops at the first record whose checksum does not match.
+  public static void replay(Path directory, Consumer<String> consumer) throws IOException {
+    if (!Files.isDirectory(directory)) {
+      return;
+    }
+    for (Path segment : listSegments(directory)) {
+      try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          String json = decode(line);
+          if (json == null) {
+            AsyncLogger.warn("Write-ahead log: ignoring torn record in " + segment.getFileName());
+            break;
+          }
+          consumer.accept(json);
+        }
+      }
+    }
+  }
+
+  private static List<Path> listSegments(Path directory) throws IOException {
+    try (Stream<Path> files = Files.list(directory)) {
+      return files.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX))
+          .filter(path -> generationOf(path) >= 0)
+          .sorted((a, b) -> Long.compare(generationOf(a), generationOf(b)))
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static long generationOf(Path segment) {
+    try {
+      return Long.parseLong(segment.getFileName().toString().substring(SEGMENT_PREFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static byte[] encode(String json) {
+    byte[] payload = json.getBytes(StandardCharsets.UTF_8);
+    CRC32 crc = new CRC32();
+    crc.update(payload);
+    return (Long.toHexString(crc.getValue()) + " " + json + "\n").getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static String decode(String line) {
+    int separator = line.indexOf(' ');
+    if (separator <= 0) {
+      return null;
+    }
+    String json = line.substring(separator + 1);
+    CRC32 crc = new CRC32();
+    crc.update(json.getBytes(StandardCharsets.UTF_8));
+    return Long.toHexString(crc.getValue()).equals(line.substring(0, separator)) ? json : null;
+  }
+}